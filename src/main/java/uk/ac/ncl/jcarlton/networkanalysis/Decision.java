@@ -2,12 +2,29 @@ package uk.ac.ncl.jcarlton.networkanalysis;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.ClassifierClient;
 import uk.ac.ncl.jcarlton.networkanalysis.analysis.LinkAnalysisTwitter;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.StaticNetwork;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.TopicDetection;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.TopicVectors;
+import uk.ac.ncl.jcarlton.networkanalysis.event.DecisionEvent;
+import uk.ac.ncl.jcarlton.networkanalysis.policy.DecisionPolicy;
+import uk.ac.ncl.jcarlton.networkanalysis.policy.DefaultDecisionPolicy;
+import uk.ac.ncl.jcarlton.networkanalysis.policy.PolicyEvaluator;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SocialNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.stream.ActivityProfile;
+import uk.ac.ncl.jcarlton.networkanalysis.stream.ActivityProfileStore;
+import uk.ac.ncl.jcarlton.networkanalysis.util.ActivityLog;
+import uk.ac.ncl.jcarlton.networkanalysis.util.Config;
+import uk.ac.ncl.jcarlton.networkanalysis.util.OffHeapIdSetStore;
+import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterNetworkProvider;
 import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterSetup;
-import uk.ac.ncl.jcarlton.networkanalysis.util.MapSorter;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 
 /**
  * Based on the Link Analysis, make a decision as to whether
@@ -21,8 +38,30 @@ import java.util.*;
  * scope of this project. This class uses those utility
  * classes in order to make a decision.
  * <p>
- * Currently set-up for Twitter but could be changed
- * to accommodate both Twitter and Facebook.
+ * How the individual checks are combined is decided by a
+ * {@link DecisionPolicy}, which defaults to the
+ * {@link DefaultDecisionPolicy}. Checks are run cheapest
+ * first and skipped once they cannot change the outcome.
+ * When a refreshed {@link StaticNetwork} covering the static
+ * users is given, the link checks are answered from it
+ * rather than from the requesting user's follower lists.
+ * <p>
+ * While the topic classifier is failing fast (its circuit
+ * breaker is open) and the user has no pre-classified activity
+ * profile, the activity check is skipped and the decision rests
+ * on the link checks alone. The same happens if the classifier
+ * fails to answer during the check; nothing is then written to
+ * the user's history. Such degraded decisions are not cached,
+ * see {@link #isDegraded()}.
+ * <p>
+ * A check whose API calls fail counts as not passed, so such a
+ * decision may deny a user who should have been let in. It is
+ * not cached either, and the failure is kept for the caller to
+ * report, see {@link #isIncomplete()}.
+ * <p>
+ * The API calls are made through a {@link SocialNetworkProvider},
+ * by default Twitter through one shared instance; see
+ * {@link Builder#provider(SocialNetworkProvider)}.
  *
  * @author Jonathan Carlton on 24-Aug-16
  */
@@ -31,8 +70,128 @@ public class Decision {
     private List<Long> staticUsers;
     private long requestingUser;
     private Date lastChecked;
+    private DecisionPolicy policy;
+    private DecisionCache cache;
+    private StaticNetwork staticNetwork;
+    private OffHeapIdSetStore idSetStore;
+    private ActivityProfileStore profileStore;
+    private WarmupScheduler warmupScheduler;
+    private boolean includeFavourites;
+    private SocialNetworkProvider provider;
+    private boolean allowDegraded;
 
     private boolean decision;
+    private int apiCalls;
+    private boolean degraded;
+    private TwitterException failure;
+    private float activitySimilarity;
+
+    private static final String DEFAULT_SIMILARITY = "jensen-shannon";
+    private static final int DEFAULT_ACTIVITY_WINDOW = 30;
+    private static final double DEFAULT_SIMILARITY_THRESHOLD = 0.5;
+
+    /**
+     * The provider used when none is given, shared so that the
+     * identical calls of concurrent decisions are coalesced, and
+     * the configuration its tokens were read from.
+     */
+    private static SocialNetworkProvider defaultProvider;
+    private static Config defaultProviderConfig;
+
+    /**
+     * Builder for a decision that needs more than the
+     * defaults, e.g. a different {@link DecisionPolicy}.
+     */
+    public static class Builder {
+        private long requestingUser;
+        private List<Long> staticUsers;
+        private Date lastChecked = null;
+        private DecisionPolicy policy = new DefaultDecisionPolicy();
+        private DecisionCache cache = null;
+        private StaticNetwork staticNetwork = null;
+        private OffHeapIdSetStore idSetStore = null;
+        private ActivityProfileStore profileStore = null;
+        private WarmupScheduler warmupScheduler = null;
+        private boolean includeFavourites = false;
+        private SocialNetworkProvider provider = null;
+        private boolean allowDegraded = true;
+
+        public Builder(long requestingUser, List<Long> staticUsers) {
+            this.requestingUser = requestingUser;
+            this.staticUsers = staticUsers;
+        }
+
+        public Builder lastChecked(Date lastChecked) {
+            this.lastChecked = lastChecked;
+            return this;
+        }
+
+        public Builder policy(DecisionPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        public Builder cache(DecisionCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public Builder staticNetwork(StaticNetwork staticNetwork) {
+            this.staticNetwork = staticNetwork;
+            return this;
+        }
+
+        public Builder idSetStore(OffHeapIdSetStore idSetStore) {
+            this.idSetStore = idSetStore;
+            return this;
+        }
+
+        public Builder profileStore(ActivityProfileStore profileStore) {
+            this.profileStore = profileStore;
+            return this;
+        }
+
+        public Builder warmupScheduler(WarmupScheduler warmupScheduler) {
+            this.warmupScheduler = warmupScheduler;
+            return this;
+        }
+
+        public Builder includeFavourites(boolean includeFavourites) {
+            this.includeFavourites = includeFavourites;
+            return this;
+        }
+
+        /**
+         * Share one authenticated instance between decisions,
+         * rather than setting up a new one for each.
+         */
+        public Builder twitter(Twitter twitterInstance) {
+            this.provider = new TwitterNetworkProvider(twitterInstance);
+            return this;
+        }
+
+        /**
+         * Make the API calls through the given provider, e.g. a
+         * synthetic network for benchmarking.
+         */
+        public Builder provider(SocialNetworkProvider provider) {
+            this.provider = provider;
+            return this;
+        }
+
+        /**
+         * Whether to decide on the link checks alone while the
+         * topic classifier is unavailable, rather than waiting on it.
+         */
+        public Builder allowDegraded(boolean allowDegraded) {
+            this.allowDegraded = allowDegraded;
+            return this;
+        }
+
+        public Decision build() {
+            return new Decision(this);
+        }
+    }
 
     /**
      * Object constructor.
@@ -48,6 +207,23 @@ public class Decision {
         this.requestingUser = requestingUser;
         this.staticUsers = staticUsers;
         this.lastChecked = lastChecked;
+        this.policy = new DefaultDecisionPolicy();
+        this.allowDegraded = true;
+    }
+
+    private Decision(Builder builder) {
+        this.requestingUser = builder.requestingUser;
+        this.staticUsers = builder.staticUsers;
+        this.lastChecked = builder.lastChecked;
+        this.policy = builder.policy;
+        this.cache = builder.cache;
+        this.staticNetwork = builder.staticNetwork;
+        this.idSetStore = builder.idSetStore;
+        this.profileStore = builder.profileStore;
+        this.warmupScheduler = builder.warmupScheduler;
+        this.includeFavourites = builder.includeFavourites;
+        this.provider = builder.provider;
+        this.allowDegraded = builder.allowDegraded;
     }
 
     /**
@@ -55,53 +231,152 @@ public class Decision {
      *
      * @param requestingUser the user attempting to authenticate
      * @param staticUsers    a list of user ids
-     * @return a new Decision object
+     * @return a new Decision object, using the same policy, caches
+     * and static network
      */
     public Decision reset(long requestingUser, List<Long> staticUsers, Date lastChecked) {
-        return new Decision(requestingUser, staticUsers, lastChecked);
+        return new Builder(requestingUser, staticUsers)
+                .lastChecked(lastChecked)
+                .policy(policy)
+                .cache(cache)
+                .staticNetwork(staticNetwork)
+                .idSetStore(idSetStore)
+                .profileStore(profileStore)
+                .warmupScheduler(warmupScheduler)
+                .includeFavourites(includeFavourites)
+                .provider(provider)
+                .allowDegraded(allowDegraded)
+                .build();
     }
 
     /**
      * Key method which gives the result for the
      * authentication decision.
+     * <p>
+     * If a {@link DecisionCache} was given, a recent decision
+     * for the same requesting and static users is returned
+     * without running any of the checks.
      *
      * @return the decision
      */
     public boolean decide() {
-        // the process isn't going to work with null/empty/0'd variables
-        if (staticUsers == null || staticUsers.isEmpty() || requestingUser == 0) {
-            decision = false;
-            return decision;
-        }
-
-        LinkAnalysisTwitter link = new LinkAnalysisTwitter(requestingUser, new TwitterSetup().getInstance(), lastChecked);
-
-        boolean follow, friend, activity = false;
-
-        // check for the following link
-        Map<Long, Boolean> followMap = link.checkForLinksFollowing(staticUsers);
+        DecisionEvent event = new DecisionEvent();
+        event.begin();
+        Boolean cached = null;
+        degraded = false;
+        failure = null;
+        activitySimilarity = Float.NaN;
+        try {
+            // lets the scheduler learn who to warm, and whether this login was warm
+            if (warmupScheduler != null && requestingUser != 0)
+                warmupScheduler.recordLogin(requestingUser);
 
-        follow = checkMap(followMap);
+            boolean cacheable = cache != null && staticUsers != null;
+            if (cacheable)
+                cached = cache.get(requestingUser, staticUsers);
 
+            if (cached != null) {
+                decision = cached;
+                apiCalls = 0;
+            }
+            else {
+                decision = makeDecision();
+                if (cacheable && !degraded && failure == null)
+                    cache.put(requestingUser, staticUsers, decision);
+            }
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.requestingUser = requestingUser;
+                event.staticUserCount = staticUsers == null ? 0 : staticUsers.size();
+                event.decision = decision;
+                event.cached = cached != null;
+                event.degraded = degraded;
+                event.activitySimilarity = activitySimilarity;
+                event.commit();
+            }
+        }
+        return decision;
+    }
 
-        // check for the friends link
-        Map<Long, Boolean> friendMap = link.checkForLinksFriends(staticUsers);
+    /**
+     * Run the link and activity checks behind {@link #decide()}.
+     *
+     * @return the decision
+     */
+    private boolean makeDecision() {
+        // the process isn't going to work with null/empty/0'd variables
+        if (staticUsers == null || staticUsers.isEmpty() || requestingUser == 0)
+            return false;
 
-        friend = checkMap(friendMap);
+        SocialNetworkProvider network = provider != null ? provider : defaultProvider();
+        LinkAnalysisTwitter link = new LinkAnalysisTwitter(requestingUser, network, lastChecked);
+        if (idSetStore != null)
+            link.setIdSetStore(idSetStore);
+        if (profileStore != null)
+            link.setProfileStore(profileStore);
+        link.setIncludeFavourites(includeFavourites);
+        Config config = Config.current();
+        link.setActivityWindow(activityWindow(config));
+
+        Map<String, BooleanSupplier> rules = new HashMap<>();
+        if (staticNetwork != null && staticNetwork.covers(staticUsers)) {
+            // answered locally from the precomputed static user network
+            rules.put(DecisionPolicy.FOLLOW, () -> checkMap(staticNetwork.checkForLinksFollowing(requestingUser, staticUsers)));
+            rules.put(DecisionPolicy.FRIEND, () -> checkMap(staticNetwork.checkForLinksFriends(requestingUser, staticUsers)));
+        } else {
+            rules.put(DecisionPolicy.FOLLOW, () -> checkMap(link.checkForLinksFollowing(staticUsers)));
+            rules.put(DecisionPolicy.FRIEND, () -> checkMap(link.checkForLinksFriends(staticUsers)));
+        }
+        rules.put(DecisionPolicy.ACTIVITY, () -> {
+            if (allowDegraded && !TopicDetection.isAvailable() && !hasProfile()) {
+                // nothing can be classified, leave the decision to the link checks
+                degraded = true;
+                return true;
+            }
+            try {
+                return checkRecentActivity(link.recentActivity(staticUsers), config);
+            } catch (ClassifierClient.UnavailableException e) {
+                if (!allowDegraded) return false;
+                degraded = true;
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
 
-        // call check recent activity
         try {
-            activity = checkRecentActivity(link.recentActivity(staticUsers));
-        } catch (IOException e) {
-            e.printStackTrace();
+            return new PolicyEvaluator(rules).evaluate(policy.getExpression());
+        } finally {
+            apiCalls = link.getApiCalls();
+            failure = link.getFailure();
+            link.close();
         }
+    }
 
-        // all true then set decision as true
-        if (follow && friend && activity) decision = true;
-            // else, if follow and activity is true then set decision as true
-        else decision = follow && activity;
+    /**
+     * @return the shared Twitter provider, set up again when the
+     * configuration (and so perhaps the tokens) has been reloaded
+     */
+    private static synchronized SocialNetworkProvider defaultProvider() {
+        Config config = Config.current();
+        if (defaultProvider == null || defaultProviderConfig != config) {
+            defaultProvider = new TwitterNetworkProvider(new TwitterSetup().getInstance());
+            defaultProviderConfig = config;
+        }
+        return defaultProvider;
+    }
 
-        return decision;
+    /**
+     * @return true if the requesting user's activity has been
+     * classified ahead of time by the activity stream
+     */
+    private boolean hasProfile() {
+        if (profileStore == null) return false;
+        ActivityProfile profile = profileStore.get(requestingUser);
+        // an empty profile is passed over by the activity check, which then classifies
+        return profile != null && !profile.isEmpty();
     }
 
     /**
@@ -113,23 +388,20 @@ public class Decision {
      *
      * @param recentActivity the stored json object of the users
      *                       recent activities
+     * @param config         the settings of the check
      * @return
      */
-    private boolean checkRecentActivity(JSONObject recentActivity) {
+    private boolean checkRecentActivity(JSONObject recentActivity, Config config) {
         // unable to do anything with just one activity entry
         if (recentActivity.size() <= 1 || recentActivity.isEmpty())
             return false;
 
-        Set<String> keySet = new TreeSet<>(new Comparator<String>() {
-            @Override
-            public int compare(String o1, String o2) {
-                return o2.compareTo(o1);
-            }
-        });
+        // newest first, by the date in the key rather than its text
+        Set<String> keySet = new TreeSet<>(ActivityLog.BY_DATE.reversed());
         keySet.addAll(recentActivity.keySet());
 
 
-        return topicsChecked(recentActivity, keySet);
+        return topicsChecked(recentActivity, keySet, config);
     }
 
     /**
@@ -160,72 +432,90 @@ public class Decision {
 
     /**
      * Check the topics that are stored in the users recent
-     * activity and compare them with the previous.
+     * activity against their history.
+     * <p>
+     * The newest snapshot is compared, as a {@link TopicVectors}
+     * vector, with the mean of the snapshots in the history window
+     * before it ({@value #DEFAULT_ACTIVITY_WINDOW} by default), and
+     * with each of them. The check passes if either similarity
+     * reaches the threshold, so a user who returns to the mix of
+     * an earlier period still passes. The measure, window and
+     * threshold are read from the configuration
+     * ({@code activity.similarity}, {@code activity.window} and
+     * {@code activity.similarity.threshold}); a value that is not
+     * a known measure, a window below 1 or a threshold outside
+     * [0, 1] is ignored in favour of the default.
+     * <p>
+     * Snapshots with no topics (a check that found nothing new)
+     * say nothing of the user's interests and are passed over, so
+     * the newest snapshot that has topics is the one scored; the
+     * check fails only if none has any.
      *
-     * @param recentActivity
-     * @param keySet
-     * @return
+     * @param recentActivity the stored json object of the users
+     *                       recent activities
+     * @param keySet         its keys, newest first
+     * @param config         the settings of the check
+     * @return true if the newest activity is inline with the history
      */
-    private boolean topicsChecked(JSONObject recentActivity, Set<String> keySet) {
-
-        Map<String, Integer> previousTopics = new HashMap<>();
-        List<Boolean> topTopicCheckList = new ArrayList<>();
-
-        for (String key : keySet) {
-            // compare the topics
-            JSONObject obj = (JSONObject) recentActivity.get(key);
-            JSONArray topics = (JSONArray) obj.get("topics_posted");
-            if (topics.isEmpty()) return false;
-
-            if (previousTopics.isEmpty()) {
-                for (Object t : topics) {
-                    JSONObject innerTopicObject = (JSONObject) t;
-                    previousTopics.put((String) innerTopicObject.get("topic"), Math.toIntExact((Long) innerTopicObject.get("frequency")));
-                }
-                previousTopics = MapSorter.valueDescending(previousTopics);
-            } else {
-                Map<String, Integer> currentTopics = new HashMap<>();
-                for (Object t : topics) {
-                    JSONObject innerTopicObject = (JSONObject) t;
-                    currentTopics.put((String) innerTopicObject.get("topic"), Math.toIntExact((Long) innerTopicObject.get("frequency")));
-                }
-                currentTopics = MapSorter.valueDescending(currentTopics);
-
-                // the maps are completely equal
-                if (previousTopics.equals(currentTopics))
-                    return true;
-
-                int loopCounter = 0;
-
-                for (Map.Entry<String, Integer> m : currentTopics.entrySet()) {
-                    if (loopCounter != 2) {
-                        topTopicCheckList.add(previousTopics.containsKey(m.getKey()));
-                        loopCounter++;
-                    } else {
-                        break;
-                    }
-                }
-                previousTopics = currentTopics;
+    private boolean topicsChecked(JSONObject recentActivity, Set<String> keySet, Config config) {
+        TopicVectors.Measure measure = similarityMeasure(config);
+        int window = activityWindow(config);
+        double threshold = similarityThreshold(config);
+
+        Iterator<String> keys = keySet.iterator();
+        float[] current = new float[0];
+        while (current.length == 0 && keys.hasNext())
+            current = TopicVectors.vector(topicsPosted(recentActivity, keys.next()));
+        if (current.length == 0) return false;
+
+        List<float[]> history = new ArrayList<>();
+        while (keys.hasNext() && history.size() < window) {
+            float[] snapshot = TopicVectors.vector(topicsPosted(recentActivity, keys.next()));
+            if (snapshot.length > 0)
+                history.add(snapshot);
+        }
+        if (history.isEmpty()) return false;
 
-            }
+        float similarity = measure.similarity(current, TopicVectors.profile(history));
+        for (float s : TopicVectors.similarities(measure, current, history))
+            similarity = Math.max(similarity, s);
 
+        activitySimilarity = similarity;
+        return similarity >= threshold;
+    }
+
+    private static TopicVectors.Measure similarityMeasure(Config config) {
+        try {
+            return TopicVectors.Measure.of(config.getProperty("activity.similarity", DEFAULT_SIMILARITY));
+        } catch (IllegalArgumentException e) {
+            return TopicVectors.Measure.of(DEFAULT_SIMILARITY);
         }
+    }
 
-        if (topTopicCheckList.isEmpty()) return false;
-        else if (!topTopicCheckList.contains(false)) return true;
-        else {
-            int trueCount = 0;
-            int falseCount = 0;
-            for (Boolean b : topTopicCheckList) {
-                if (b) trueCount++;
-                else falseCount++;
-            }
+    private static int activityWindow(Config config) {
+        try {
+            int window = config.getInt("activity.window", DEFAULT_ACTIVITY_WINDOW);
+            return window >= 1 ? window : DEFAULT_ACTIVITY_WINDOW;
+        } catch (NumberFormatException e) {
+            return DEFAULT_ACTIVITY_WINDOW;
+        }
+    }
 
-            if (falseCount > trueCount) return false;
-            else return falseCount <= trueCount;
+    private static double similarityThreshold(Config config) {
+        try {
+            double threshold = config.getDouble("activity.similarity.threshold", DEFAULT_SIMILARITY_THRESHOLD);
+            // also false for NaN
+            return threshold >= 0 && threshold <= 1 ? threshold : DEFAULT_SIMILARITY_THRESHOLD;
+        } catch (NumberFormatException e) {
+            return DEFAULT_SIMILARITY_THRESHOLD;
         }
     }
 
+    private static JSONArray topicsPosted(JSONObject recentActivity, String key) {
+        JSONObject obj = (JSONObject) recentActivity.get(key);
+        return (JSONArray) obj.get("topics_posted");
+    }
+
 
     /**
      * Getter methods for the object variables
@@ -242,4 +532,69 @@ public class Decision {
     public boolean isDecision() {
         return decision;
     }
+
+    /**
+     * @return true if the last {@link #decide()} skipped the activity
+     * check as the topic classifier was unavailable
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * @return true if an API call failed during the last
+     * {@link #decide()}, so a check it ran may have been failed
+     * for want of data rather than on its merits
+     */
+    public boolean isIncomplete() {
+        return failure != null;
+    }
+
+    /**
+     * @return the API failure behind {@link #isIncomplete()}, or
+     * null if the last {@link #decide()} was complete
+     */
+    public TwitterException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return how closely the newest activity matched the history in
+     * the last {@link #decide()}, NaN if the activity was not scored
+     */
+    public float getActivitySimilarity() {
+        return activitySimilarity;
+    }
+
+    /**
+     * @return the API calls made by the last {@link #decide()},
+     * 0 if it was answered from the cache
+     */
+    public int getApiCalls() {
+        return apiCalls;
+    }
+
+    public DecisionPolicy getPolicy() {
+        return policy;
+    }
+
+    public DecisionCache getCache() {
+        return cache;
+    }
+
+    public StaticNetwork getStaticNetwork() {
+        return staticNetwork;
+    }
+
+    public OffHeapIdSetStore getIdSetStore() {
+        return idSetStore;
+    }
+
+    public ActivityProfileStore getProfileStore() {
+        return profileStore;
+    }
+
+    public WarmupScheduler getWarmupScheduler() {
+        return warmupScheduler;
+    }
 }
@@ -0,0 +1,275 @@
+package uk.ac.ncl.jcarlton.networkanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+/**
+ * Cache of recent authentication decisions, so that a user
+ * retrying a login does not re-run the whole {@link Decision}
+ * pipeline.
+ * <p>
+ * Decisions are keyed by the requesting user and a fingerprint
+ * of the static users they were checked against. Positive and
+ * negative decisions expire after separate periods, letting a
+ * failed login be retried sooner than a successful one is
+ * re-checked. When the static user list changes the affected
+ * entries should be dropped with {@link #invalidateStaticUsers(List)}.
+ * <p>
+ * The cache holds at most a fixed number of decisions. A store
+ * that takes it over the bound first removes the expired
+ * decisions and then, if it is still too full, those closest
+ * to expiring, down to nine tenths of the bound so the next
+ * few stores do not have to do the same.
+ * <p>
+ * The cache is safe to share between threads and is intended
+ * to be shared by every {@link Decision}, see
+ * {@link Decision.Builder#cache(DecisionCache)}.
+ */
+public class DecisionCache {
+
+    /**
+     * The most decisions held, unless set otherwise.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private final long positiveTtlNanos;
+    private final long negativeTtlNanos;
+    private final int maxEntries;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Object constructor, holding at most
+     * {@value #DEFAULT_MAX_ENTRIES} decisions.
+     *
+     * @param positiveTtl how long a true decision is kept
+     * @param negativeTtl how long a false decision is kept
+     * @param unit        the unit of both periods
+     */
+    public DecisionCache(long positiveTtl, long negativeTtl, TimeUnit unit) {
+        this(positiveTtl, negativeTtl, unit, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Object constructor.
+     *
+     * @param positiveTtl how long a true decision is kept
+     * @param negativeTtl how long a false decision is kept
+     * @param unit        the unit of both periods
+     * @param maxEntries  the most decisions held
+     */
+    public DecisionCache(long positiveTtl, long negativeTtl, TimeUnit unit, int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        this.positiveTtlNanos = unit.toNanos(positiveTtl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Fetch a cached decision.
+     *
+     * @param requestingUser the user attempting to authenticate
+     * @param staticUsers    the static users they are checked against
+     * @return the cached decision, or null if there is none or
+     * it has expired
+     */
+    public Boolean get(long requestingUser, List<Long> staticUsers) {
+        Key key = new Key(requestingUser, fingerprint(staticUsers));
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires - System.nanoTime() > 0) {
+            hits.incrementAndGet();
+            return entry.decision;
+        }
+
+        if (entry != null)
+            entries.remove(key, entry);
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store a decision.
+     *
+     * @param requestingUser the user attempting to authenticate
+     * @param staticUsers    the static users they were checked against
+     * @param decision       the decision that was made
+     */
+    public void put(long requestingUser, List<Long> staticUsers, boolean decision) {
+        long ttl = decision ? positiveTtlNanos : negativeTtlNanos;
+        if (ttl <= 0) return;
+
+        Key key = new Key(requestingUser, fingerprint(staticUsers));
+        entries.put(key, new Entry(decision, System.nanoTime() + ttl));
+        if (entries.size() > maxEntries)
+            evict();
+    }
+
+    /**
+     * Bring the cache back under its bound: expired decisions
+     * first, then those closest to expiring. Only one thread
+     * evicts at a time; the others carry on.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) return;
+        try {
+            cleanUp();
+            int excess = entries.size() - maxEntries / 10 * 9;
+            if (excess <= 0) return;
+
+            long now = System.nanoTime();
+            List<Map.Entry<Key, Entry>> byExpiry = new ArrayList<>(entries.entrySet());
+            byExpiry.sort((a, b) -> Long.compare(a.getValue().expires - now, b.getValue().expires - now));
+            for (int i = 0; i < excess && i < byExpiry.size(); i++) {
+                Map.Entry<Key, Entry> e = byExpiry.get(i);
+                if (entries.remove(e.getKey(), e.getValue()))
+                    evictions.incrementAndGet();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Drop every cached decision for a requesting user.
+     *
+     * @param requestingUser the user whose decisions are dropped
+     */
+    public void invalidate(long requestingUser) {
+        entries.keySet().removeIf(k -> k.requestingUser == requestingUser);
+    }
+
+    /**
+     * Drop the cached decisions of every requesting user that
+     * matches, e.g. the users this node no longer serves.
+     *
+     * @param requestingUsers matches the users whose decisions are dropped
+     */
+    public void invalidateIf(LongPredicate requestingUsers) {
+        entries.keySet().removeIf(k -> requestingUsers.test(k.requestingUser));
+    }
+
+    /**
+     * Drop every cached decision that was made against the given
+     * static users, to be called when that list changes.
+     *
+     * @param staticUsers the previous list of static users
+     */
+    public void invalidateStaticUsers(List<Long> staticUsers) {
+        long fingerprint = fingerprint(staticUsers);
+        entries.keySet().removeIf(k -> k.fingerprint == fingerprint);
+    }
+
+    /**
+     * Drop every cached decision.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Remove the expired decisions, which are otherwise only
+     * removed when they are next looked up.
+     */
+    public void cleanUp() {
+        long now = System.nanoTime();
+        entries.values().removeIf(e -> e.expires - now <= 0);
+    }
+
+    /**
+     * An order independent fingerprint of a list of static users.
+     *
+     * @param staticUsers a list of user ids
+     * @return the fingerprint
+     */
+    static long fingerprint(List<Long> staticUsers) {
+        long[] ids = new long[staticUsers.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = staticUsers.get(i);
+        Arrays.sort(ids);
+
+        // 64 bit FNV-1a over the sorted ids
+        long hash = 0xcbf29ce484222325L;
+        for (long id : ids) {
+            for (int i = 0; i < 8; i++) {
+                hash ^= (id >>> (i * 8)) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Getter methods for the cache metrics
+     */
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return the unexpired decisions removed to keep the cache
+     * within its bound
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Key {
+        private final long requestingUser;
+        private final long fingerprint;
+
+        private Key(long requestingUser, long fingerprint) {
+            this.requestingUser = requestingUser;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return requestingUser == key.requestingUser && fingerprint == key.fingerprint;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(requestingUser) + Long.hashCode(fingerprint);
+        }
+    }
+
+    private static final class Entry {
+        private final boolean decision;
+        private final long expires;
+
+        private Entry(boolean decision, long expires) {
+            this.decision = decision;
+            this.expires = expires;
+        }
+    }
+}
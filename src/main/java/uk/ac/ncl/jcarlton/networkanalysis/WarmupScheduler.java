@@ -0,0 +1,259 @@
+package uk.ac.ncl.jcarlton.networkanalysis;
+
+import twitter4j.Twitter;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.LinkAnalysisTwitter;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SocialNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.stream.ActivityProfileStore;
+import uk.ac.ncl.jcarlton.networkanalysis.util.MapSorter;
+import uk.ac.ncl.jcarlton.networkanalysis.util.OffHeapIdSetStore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warm the data of regular users in the background, so that
+ * their logins find it already fetched.
+ * <p>
+ * Every login is recorded with {@link #recordLogin(long)}.
+ * Users are prioritised by how often they log in, weighted
+ * towards recent logins (the weight of a login halves every
+ * half-life). Each round the highest priority users whose data
+ * is no longer fresh are warmed, until the round's budget of
+ * API and classifier calls is spent. Each user is given what is
+ * left of the budget and stops once it is spent, so a round
+ * never goes over it.
+ * <p>
+ * A login counts as a warm hit if the user was warmed within
+ * the freshness period before it.
+ */
+public class WarmupScheduler {
+
+    /**
+     * Fetches one user's data into the shared stores.
+     */
+    public interface UserWarmer {
+        /**
+         * @param userId the user to warm
+         * @param budget the most API and classifier calls to make
+         * @return the number of API and classifier calls made
+         * @throws Exception if the data could not be fetched
+         */
+        int warm(long userId, int budget) throws Exception;
+    }
+
+    private final UserWarmer warmer;
+    private final int apiBudget;
+    private final long freshnessMillis;
+    private long halfLifeMillis = TimeUnit.DAYS.toMillis(7);
+
+    private final Map<Long, LoginHistory> logins = new ConcurrentHashMap<>();
+    private final Map<Long, Long> lastWarmed = new ConcurrentHashMap<>();
+
+    private final AtomicLong warmHits = new AtomicLong();
+    private final AtomicLong warmMisses = new AtomicLong();
+    private final AtomicLong usersWarmed = new AtomicLong();
+    private final AtomicLong apiCallsSpent = new AtomicLong();
+
+    private volatile boolean paused = false;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Object constructor.
+     *
+     * @param warmer          fetches a user's data
+     * @param apiBudget       the most API and classifier calls to
+     *                        spend in one round
+     * @param freshnessMillis how long warmed data counts as fresh
+     */
+    public WarmupScheduler(UserWarmer warmer, int apiBudget, long freshnessMillis) {
+        this.warmer = warmer;
+        this.apiBudget = apiBudget;
+        this.freshnessMillis = freshnessMillis;
+    }
+
+    /**
+     * A warmer that fetches a user's follower and friend ids into
+     * the off-heap store and their new tweets into their activity
+     * profile, see {@link LinkAnalysisTwitter#warm(int)}.
+     *
+     * @param twitterInstance pre-authenticated instance of the Twitter4j
+     *                        Twitter API.
+     * @param idSetStore      where the ids are kept, may be null
+     * @param profileStore    where the profiles are kept, may be null
+     * @return the warmer
+     */
+    public static UserWarmer linkWarmer(Twitter twitterInstance, OffHeapIdSetStore idSetStore,
+                                        ActivityProfileStore profileStore) {
+        return linkWarmer(new TwitterNetworkProvider(twitterInstance), idSetStore, profileStore);
+    }
+
+    /**
+     * As {@link #linkWarmer(Twitter, OffHeapIdSetStore, ActivityProfileStore)},
+     * fetching through the given provider.
+     *
+     * @param provider     the social network to fetch from
+     * @param idSetStore   where the ids are kept, may be null
+     * @param profileStore where the profiles are kept, may be null
+     * @return the warmer
+     */
+    public static UserWarmer linkWarmer(SocialNetworkProvider provider, OffHeapIdSetStore idSetStore,
+                                        ActivityProfileStore profileStore) {
+        return (userId, budget) -> {
+            try (LinkAnalysisTwitter link = new LinkAnalysisTwitter(userId, provider, null)) {
+                link.setIdSetStore(idSetStore);
+                link.setProfileStore(profileStore);
+                link.warm(budget);
+                return link.getApiCalls() + link.getClassifierCalls();
+            }
+        };
+    }
+
+    /**
+     * Record a login, counting it as a warm hit or miss.
+     *
+     * @param userId the user logging in
+     * @return true if the user's data was fresh
+     */
+    public boolean recordLogin(long userId) {
+        long now = System.currentTimeMillis();
+        logins.computeIfAbsent(userId, k -> new LoginHistory()).record(now, halfLifeMillis);
+
+        boolean warm = isFresh(userId, now);
+        if (warm) warmHits.incrementAndGet();
+        else warmMisses.incrementAndGet();
+        return warm;
+    }
+
+    /**
+     * Run rounds in the background at a fixed rate.
+     *
+     * @param period time between rounds
+     * @param unit   the unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "warmup-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runRound, 0, period, unit);
+    }
+
+    /**
+     * Stop running rounds.
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Skip rounds until {@link #resume()} is called, e.g. while
+     * the API rate limit is needed for logins.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Warm the highest priority users that are not fresh, until
+     * the API budget for the round is spent.
+     */
+    public void runRound() {
+        if (paused) return;
+
+        long now = System.currentTimeMillis();
+        Map<Long, Double> priorities = new HashMap<>();
+        for (Map.Entry<Long, LoginHistory> m : logins.entrySet()) {
+            if (!isFresh(m.getKey(), now))
+                priorities.put(m.getKey(), m.getValue().priority(now, halfLifeMillis));
+        }
+
+        int spent = 0;
+        for (long userId : MapSorter.valueDescending(priorities).keySet()) {
+            if (spent >= apiBudget || paused) break;
+            try {
+                spent += warmer.warm(userId, apiBudget - spent);
+                lastWarmed.put(userId, System.currentTimeMillis());
+                usersWarmed.incrementAndGet();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        apiCallsSpent.addAndGet(spent);
+    }
+
+    private boolean isFresh(long userId, long now) {
+        Long warmed = lastWarmed.get(userId);
+        return warmed != null && now - warmed < freshnessMillis;
+    }
+
+    /**
+     * @param halfLifeMillis how long it takes a login to lose half
+     *                       of its weight in the priority
+     */
+    public void setHalfLife(long halfLifeMillis) {
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    /**
+     * Getter methods for the scheduler metrics
+     */
+
+    public long getWarmHits() {
+        return warmHits.get();
+    }
+
+    public long getWarmMisses() {
+        return warmMisses.get();
+    }
+
+    public double getWarmHitRatio() {
+        long h = warmHits.get();
+        long total = h + warmMisses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getUsersWarmed() {
+        return usersWarmed.get();
+    }
+
+    public long getApiCallsSpent() {
+        return apiCallsSpent.get();
+    }
+
+    /**
+     * The exponentially decayed login count of one user.
+     */
+    private static final class LoginHistory {
+        private double weight = 0;
+        private long updated = 0;
+
+        synchronized void record(long now, long halfLife) {
+            weight = priority(now, halfLife) + 1;
+            updated = now;
+        }
+
+        synchronized double priority(long now, long halfLife) {
+            if (updated == 0) return 0;
+            return weight * Math.pow(0.5, (double) (now - updated) / halfLife);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package uk.ac.ncl.jcarlton.networkanalysis.analysis;
+
+import uk.ac.ncl.jcarlton.networkanalysis.util.CircuitBreaker;
+import uk.ac.ncl.jcarlton.networkanalysis.util.Config;
+import uk.ac.ncl.jcarlton.networkanalysis.util.LatencyTracker;
+import uk.ac.ncl.jcarlton.networkanalysis.util.SingleFlight;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The HTTP client behind {@link TopicDetection}, shared by every
+ * instance so that what one request learns about the service
+ * applies to the rest.
+ * <p>
+ * Requests time out after a multiple of the recently observed
+ * p99 latency (between the configured minimum and maximum).
+ * If a request has not answered by the recent p95, a duplicate
+ * (hedged) request is sent and whichever answers first is used.
+ * A run of failures or timeouts opens a {@link CircuitBreaker};
+ * while it is open requests fail at once with a
+ * {@link CircuitOpenException}, and callers such as
+ * {@link uk.ac.ncl.jcarlton.networkanalysis.Decision} fall back
+ * to a degraded mode.
+ * <p>
+ * Identical requests (the same texts to the same classifier) made
+ * at the same time are sent once through a {@link SingleFlight},
+ * and every caller gets the one answer.
+ * <p>
+ * The limits are read from the {@link Config} properties
+ * {@code classifier.timeout.min.ms}, {@code classifier.timeout.max.ms},
+ * {@code classifier.breaker.failures} and
+ * {@code classifier.breaker.cooldown.ms}.
+ */
+public class ClassifierClient {
+
+    /**
+     * Samples needed before the percentiles are trusted; until
+     * then requests use the maximum timeout and are not hedged.
+     */
+    static final int MIN_SAMPLES = 20;
+    static final int TIMEOUT_P99_MULTIPLE = 3;
+
+    private static volatile ClassifierClient shared;
+
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final LatencyTracker latency = new LatencyTracker(512);
+    private final CircuitBreaker breaker;
+    private final SingleFlight<List<String>, Response> flights = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "classifier-request");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Thrown when the classifier gave no answer, whether the request
+     * failed, timed out or was never sent.
+     */
+    public static class UnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnavailableException(String message) {
+            super(message);
+        }
+
+        UnavailableException(IOException cause) {
+            super("Topic classifier unavailable: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    public static class CircuitOpenException extends UnavailableException {
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException() {
+            super("Topic classifier unavailable, circuit breaker open");
+        }
+    }
+
+    /**
+     * The status and body of an answered request.
+     */
+    public static final class Response {
+        private final int code;
+        private final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Object constructor.
+     *
+     * @param minTimeoutMillis the shortest timeout
+     * @param maxTimeoutMillis the longest timeout, used until enough
+     *                         latencies have been observed
+     * @param breaker          trips on sustained failures
+     */
+    public ClassifierClient(long minTimeoutMillis, long maxTimeoutMillis, CircuitBreaker breaker) {
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.breaker = breaker;
+    }
+
+    /**
+     * @return the client shared by every {@link TopicDetection}
+     */
+    public static ClassifierClient shared() {
+        if (shared == null) {
+            synchronized (ClassifierClient.class) {
+                if (shared == null) {
+                    Config config = Config.current();
+                    shared = new ClassifierClient(
+                            config.getLong("classifier.timeout.min.ms", 1000),
+                            config.getLong("classifier.timeout.max.ms", 10000),
+                            new CircuitBreaker(config.getInt("classifier.breaker.failures", 5),
+                                    config.getLong("classifier.breaker.cooldown.ms", 30000)));
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * POST a JSON body, hedging and timing out as described above,
+     * or wait for the identical request already in flight.
+     *
+     * @param url    the endpoint
+     * @param apiKey the Monkey Learn API key
+     * @param body   the JSON request
+     * @return the first answer
+     * @throws CircuitOpenException if the breaker is open
+     * @throws UnavailableException if every attempt failed or timed out
+     */
+    public Response post(URL url, String apiKey, String body) throws UnavailableException {
+        try {
+            return flights.execute(Arrays.asList(url.toString(), apiKey, body), () -> request(url, apiKey, body));
+        } catch (UnavailableException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UnavailableException(e);
+        }
+    }
+
+    private Response request(URL url, String apiKey, String body) throws IOException {
+        if (!breaker.allowRequest()) {
+            rejected.incrementAndGet();
+            throw new CircuitOpenException();
+        }
+        requests.incrementAndGet();
+
+        long timeout = TimeUnit.MILLISECONDS.toNanos(getTimeoutMillis());
+        long hedgeAfter = getHedgeDelayNanos();
+        long start = System.nanoTime();
+        long deadline = start + timeout;
+
+        CompletionService<Response> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Response>> attempts = new ArrayList<>(2);
+        attempts.add(completion.submit(() -> send(url, apiKey, body, timeout)));
+        int outstanding = 1;
+        IOException failure = null;
+
+        try {
+            while (outstanding > 0) {
+                boolean canHedge = attempts.size() == 1 && hedgeAfter >= 0;
+                long now = System.nanoTime();
+                long wait = canHedge ? Math.min(start + hedgeAfter, deadline) - now : deadline - now;
+
+                Future<Response> done = completion.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (canHedge && System.nanoTime() < deadline) {
+                        hedges.incrementAndGet();
+                        long remaining = deadline - System.nanoTime();
+                        attempts.add(completion.submit(() -> send(url, apiKey, body, remaining)));
+                        outstanding++;
+                        continue;
+                    }
+                    timeouts.incrementAndGet();
+                    failure = new SocketTimeoutException("Topic classifier did not answer within "
+                            + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms");
+                    break;
+                }
+
+                outstanding--;
+                try {
+                    Response response = done.get();
+                    if (attempts.size() > 1 && done == attempts.get(1)) hedgeWins.incrementAndGet();
+                    breaker.recordSuccess();
+                    return response;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new InterruptedIOException("Interrupted waiting for the topic classifier");
+        } finally {
+            for (Future<Response> f : attempts)
+                f.cancel(true);
+        }
+
+        breaker.recordFailure();
+        throw failure;
+    }
+
+    /**
+     * Make one attempt, recording its latency if it succeeds.
+     * Rate limiting and server errors count as failures.
+     */
+    private Response send(URL url, String apiKey, String body, long timeoutNanos) throws IOException {
+        long start = System.nanoTime();
+        int timeoutMillis = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Authorization", "Token " + apiKey);
+            connection.setRequestProperty("Content-type", "application/json");
+            connection.setUseCaches(false);
+            connection.setDoInput(true);
+            connection.setDoOutput(true);
+
+            try (Writer writer = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write(body);
+            }
+
+            int code = connection.getResponseCode();
+            if (code == 429 || code >= 500)
+                throw new IOException("Topic classifier returned HTTP " + code);
+
+            // within common error codes
+            InputStream stream = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            StringBuilder builder = new StringBuilder();
+            if (stream != null) {
+                try (BufferedReader input = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                    String inputLine;
+                    while ((inputLine = input.readLine()) != null)
+                        builder.append(inputLine);
+                }
+            }
+
+            latency.record(System.nanoTime() - start);
+            return new Response(code, builder.toString());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return the timeout for the next request
+     */
+    public long getTimeoutMillis() {
+        if (latency.getCount() < MIN_SAMPLES) return maxTimeoutMillis;
+        long p99 = TimeUnit.NANOSECONDS.toMillis(latency.percentile(99));
+        return Math.min(maxTimeoutMillis, Math.max(minTimeoutMillis, p99 * TIMEOUT_P99_MULTIPLE));
+    }
+
+    /**
+     * @return how long to wait before hedging, or -1 to not hedge
+     */
+    long getHedgeDelayNanos() {
+        if (latency.getCount() < MIN_SAMPLES) return -1;
+        return latency.percentile(95);
+    }
+
+    /**
+     * @return false while requests are failing fast
+     */
+    public boolean isAvailable() {
+        return !breaker.isOpen();
+    }
+
+    /**
+     * Getter methods for the client metrics
+     */
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public LatencyTracker getLatency() {
+        return latency;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the requests answered by an identical one in flight
+     */
+    public long getCoalesced() {
+        return flights.getShared();
+    }
+}
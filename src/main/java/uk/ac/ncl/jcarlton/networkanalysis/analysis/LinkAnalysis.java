@@ -41,4 +41,34 @@ public interface LinkAnalysis {
      */
     JSONObject recentActivity(List<Long> users) throws IOException;
 
+    /**
+     * Given a list of users, check which of them can be reached from
+     * the user passed at the creation of the object within two hops,
+     * i.e. the user follows them or follows someone who follows them.
+     *
+     * @param users list of user ids (long)
+     * @return id mapped too true if there is a link, false if not
+     */
+    Map<Long, Boolean> checkForTwoHopLinks(List<Long> users);
+
+    /**
+     * Given a list of users, count how many neighbours (followers
+     * or friends) each of them shares with the user passed at the
+     * creation of the object.
+     *
+     * @param users list of user ids (long)
+     * @return id mapped too the number of common neighbours
+     */
+    Map<Long, Integer> commonNeighbours(List<Long> users);
+
+    /**
+     * Score how close the user passed at the creation of the object
+     * is to the given users, as their personalized PageRank with
+     * every random jump returning to one of the given users.
+     *
+     * @param users list of user ids (long)
+     * @return the rank of the user, between 0 and 1
+     */
+    double personalizedPageRank(List<Long> users);
+
 }
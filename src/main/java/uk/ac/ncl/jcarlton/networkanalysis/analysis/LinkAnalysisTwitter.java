@@ -2,13 +2,34 @@ package uk.ac.ncl.jcarlton.networkanalysis.analysis;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import twitter4j.*;
-import uk.ac.ncl.jcarlton.networkanalysis.util.MapSorter;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import uk.ac.ncl.jcarlton.networkanalysis.event.PagingEvent;
+import uk.ac.ncl.jcarlton.networkanalysis.graph.CsrGraph;
+import uk.ac.ncl.jcarlton.networkanalysis.graph.GraphAnalysis;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.IdPage;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SocialNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.stream.ActivityProfile;
+import uk.ac.ncl.jcarlton.networkanalysis.stream.ActivityProfileStore;
+import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.util.BloomFilter;
+import uk.ac.ncl.jcarlton.networkanalysis.util.CompressedIdSet;
+import uk.ac.ncl.jcarlton.networkanalysis.util.Config;
+import uk.ac.ncl.jcarlton.networkanalysis.util.HighWaterMarkStore;
+import uk.ac.ncl.jcarlton.networkanalysis.util.IdSet;
+import uk.ac.ncl.jcarlton.networkanalysis.util.LazyValue;
+import uk.ac.ncl.jcarlton.networkanalysis.util.LongHashSet;
+import uk.ac.ncl.jcarlton.networkanalysis.util.OffHeapIdSet;
+import uk.ac.ncl.jcarlton.networkanalysis.util.OffHeapIdSetStore;
 import uk.ac.ncl.jcarlton.networkanalysis.util.Utility;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Perform link analysis on a Twitter based data
@@ -17,17 +38,98 @@ import java.util.*;
  * Both the users that the given user is following {@link #checkForLinksFollowing(List)}
  * and the users that are following (friends) the given user {@link #checkForLinksFriends(List)}
  * are processed for consumption.
+ * <p>
+ * Nothing is fetched from the API when the object is created.
+ * Each data set is loaded the first time it is needed and then
+ * kept for the lifetime of the object, so a check that only
+ * needs the followers never pages through the timeline. Callers
+ * that know what they will need can start the loads early with
+ * {@link #prefetch(Executor, Dataset...)}.
+ * <p>
+ * The calls are made through a {@link SocialNetworkProvider},
+ * the live Twitter API unless another is given.
+ * <p>
+ * Id sets taken from an off-heap store are held until
+ * {@link #close()}, which gives them back; the object should
+ * not be used after it.
  *
  * @author Jonathan Carlton
  * @version 1.0
  */
-public class LinkAnalysisTwitter implements LinkAnalysis {
+public class LinkAnalysisTwitter implements LinkAnalysis, AutoCloseable {
+
+    /**
+     * The data sets that are fetched from the API, used to
+     * give {@link #prefetch(Executor, Dataset...)} hints.
+     */
+    public enum Dataset {
+        TIMELINE, FOLLOWERS, FRIENDS, FAVOURITES
+    }
+
+    /**
+     * The largest page the timeline and favourites endpoints allow.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * The timeline and favourites endpoints return at most the
+     * latest 3200 tweets, 16 pages.
+     */
+    private static final int MAX_STATUS_PAGES = 16;
+
+    /**
+     * Pages of statuses fetched at once, unless set otherwise.
+     */
+    private static final int DEFAULT_PAGING_WINDOW = 4;
+
+    /**
+     * Past activity entries returned with the latest, unless set
+     * otherwise; matches the history window of the activity check.
+     */
+    private static final int DEFAULT_ACTIVITY_WINDOW = 30;
+
+    /**
+     * The most texts sent to Monkey Learn in one request.
+     */
+    private static final int TOPIC_BATCH_SIZE = 20;
+
+    /**
+     * The most liked tweets recorded in one activity entry.
+     */
+    private static final int MAX_LIKED_RECORDS = 200;
+
+    /**
+     * Damping factor and iteration count for the personalized PageRank.
+     */
+    private static final double DAMPING = 0.85;
+    private static final int PAGE_RANK_ITERATIONS = 20;
 
-    private long userId;
+    private volatile long userId;
     private String username;
-    private Twitter twitterInstance;
+    private final SocialNetworkProvider provider;
     private Date since;
-    private List<String> feed;
+    private HighWaterMarkStore highWaterMarks = new HighWaterMarkStore();
+    private final Map<String, Long> pendingMarks = new ConcurrentHashMap<>();
+    private final List<OffHeapIdSet> heldSets = new ArrayList<>();
+    private StaticNetwork staticNetwork;
+    private OffHeapIdSetStore idSetStore;
+    private ActivityProfileStore profileStore;
+    private boolean includeFavourites = false;
+    private int pagingWindow = pagingWindow(Config.current());
+    private int activityWindow = DEFAULT_ACTIVITY_WINDOW;
+
+    private final AtomicInteger apiCalls = new AtomicInteger();
+    private final AtomicInteger classifierCalls = new AtomicInteger();
+    private volatile int callBudget = Integer.MAX_VALUE;
+    private volatile TwitterException failure;
+
+    private List<Long> graphUsers;
+    private CsrGraph graph;
+
+    private final LazyValue<List<String>> feed = new LazyValue<>(this::loadFeed);
+    private final LazyValue<IdSet> followers = new LazyValue<>(() -> cachedIds("followers", this::getFollowers));
+    private final LazyValue<IdSet> friends = new LazyValue<>(() -> cachedIds("friends", this::getFriends));
+    private final LazyValue<TweetRecords> favourites = new LazyValue<>(this::getFavourites);
 
     /**
      * Create an object using a user id and an pre-authenticated
@@ -38,11 +140,21 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
      *                        Twitter API.
      */
     public LinkAnalysisTwitter(long userId, Twitter twitterInstance, Date since) {
+        this(userId, new TwitterNetworkProvider(twitterInstance), since);
+    }
+
+    /**
+     * Create an object using a user id and the provider to make
+     * the API calls through.
+     *
+     * @param userId   the id of a user
+     * @param provider the social network
+     */
+    public LinkAnalysisTwitter(long userId, SocialNetworkProvider provider, Date since) {
         this.userId = userId;
         this.username = null;
-        this.twitterInstance = twitterInstance;
+        this.provider = provider;
         this.since = since;
-        setupFeed();
     }
 
     /**
@@ -54,36 +166,407 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
      *                        Twitter API.
      */
     public LinkAnalysisTwitter(String username, Twitter twitterInstance, Date since) {
+        this(username, new TwitterNetworkProvider(twitterInstance), since);
+    }
+
+    /**
+     * Create an object using a username (screen name) and the
+     * provider to make the API calls through.
+     *
+     * @param username the username (screen name) of a user
+     * @param provider the social network
+     */
+    public LinkAnalysisTwitter(String username, SocialNetworkProvider provider, Date since) {
         this.username = username;
         this.userId = 0;
-        this.twitterInstance = twitterInstance;
+        this.provider = provider;
         this.since = since;
-        setupFeed();
     }
 
-    private void setupFeed() {
-        List<Status> rawFeed;
-        feed = new ArrayList<>();
-        if (userId != 0) {
-            try {
-                username = twitterInstance.getScreenName();
-                rawFeed = getTweets(userId);
-                for (Status s : rawFeed) {
-                    feed.add(s.getText());
-                }
-            } catch (TwitterException e) {
-                e.printStackTrace();
+    /**
+     * Hint that the given data sets will be needed, starting
+     * their loads on the executor rather than waiting for the
+     * first check that uses them.
+     *
+     * @param executor where the loads should run
+     * @param datasets the data sets to load
+     */
+    public void prefetch(Executor executor, Dataset... datasets) {
+        for (Dataset d : datasets) {
+            switch (d) {
+                case TIMELINE:
+                    feed.prefetch(executor);
+                    break;
+                case FOLLOWERS:
+                    followers.prefetch(executor);
+                    break;
+                case FRIENDS:
+                    friends.prefetch(executor);
+                    break;
+                case FAVOURITES:
+                    favourites.prefetch(executor);
+                    break;
             }
-        } else {
-            try {
-                userId = twitterInstance.getId();
-                //System.out.println(twitterInstance.getId());
-                rawFeed = getTweets(userId);
-                for (Status s : rawFeed)
-                    feed.add(s.getText());
-            } catch (TwitterException e) {
-                e.printStackTrace();
+        }
+    }
+
+    /**
+     * Resolve the user id when the object was created with
+     * a username, which costs one API call.
+     *
+     * @return the user id
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private synchronized long resolveUserId() throws TwitterException {
+        if (userId == 0) {
+            userId = provider.lookupUserId(username);
+            apiCalls.incrementAndGet();
+        }
+        return userId;
+    }
+
+    /**
+     * Fetch the text of the tweets posted since the last check.
+     *
+     * @return the tweet text
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private List<String> loadFeed() throws TwitterException {
+        return new ArrayList<>(getTweets(resolveUserId()).getTexts());
+    }
+
+    /**
+     * @return the ids of every follower of the user
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    IdSet getFollowerIds() throws TwitterException {
+        return load(followers);
+    }
+
+    /**
+     * @return the ids of every user the user follows
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    IdSet getFriendIds() throws TwitterException {
+        return load(friends);
+    }
+
+    /**
+     * Fetch a set of ids through the off-heap store, if one has been
+     * set. A set already in the store is used as it is, without any
+     * API calls; otherwise the ids are fetched and copied into the
+     * store, falling back to the on-heap set if the store is full.
+     * If another object stores the same set first, that one is used.
+     * Either way the set is held until {@link #close()}.
+     *
+     * @param name   the name of the set, e.g. followers
+     * @param loader fetches the ids from the API
+     * @return the ids
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private IdSet cachedIds(String name, IdSetLoader loader) throws TwitterException {
+        if (idSetStore == null) return loader.load();
+
+        String key = idSetKey(name);
+        OffHeapIdSet cached = idSetStore.acquire(key);
+        if (cached != null) return hold(cached);
+
+        IdSet ids = loader.load();
+        OffHeapIdSet stored = idSetStore.put(key, ids);
+        return stored == null ? ids : hold(stored);
+    }
+
+    private OffHeapIdSet hold(OffHeapIdSet set) {
+        synchronized (heldSets) {
+            heldSets.add(set);
+        }
+        return set;
+    }
+
+    /**
+     * Give back the off-heap id sets this object has taken, so
+     * they can be freed once replaced or released from the store.
+     */
+    @Override
+    public void close() {
+        synchronized (heldSets) {
+            for (OffHeapIdSet set : heldSets)
+                idSetStore.release(set);
+            heldSets.clear();
+        }
+    }
+
+    private String idSetKey(String name) {
+        return name + "_" + (userId == 0 ? username : Long.toString(userId));
+    }
+
+    /**
+     * Fetch the user's data ahead of a login, with no limit on
+     * the calls made, see {@link #warm(int)}.
+     *
+     * @throws TwitterException passed from the {@link #provider}.
+     * @throws ClassifierClient.UnavailableException see {@link #warm(int)}
+     */
+    public void warm() throws TwitterException, ClassifierClient.UnavailableException {
+        warm(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fetch the user's data ahead of a login, so that the checks
+     * made during it find it already in the shared stores.
+     * <p>
+     * Any tweets posted since those already in the user's activity
+     * profile (or, for a new profile, since the last stored check)
+     * are classified and folded into it, oldest first. The follower
+     * and friend ids are then fetched again and swapped in for those
+     * in the off-heap store, logins still reading the old sets
+     * keeping them until they are done. Either step is skipped if
+     * its store has not been set.
+     * <p>
+     * The high water marks are not raised, so a login that does
+     * not use the profile store still fetches the same tweets.
+     * <p>
+     * Pages are fetched one at a time, and no API or classifier
+     * call is made once the budget is spent. What was done before
+     * then is kept: the tweets folded in so far, and any id set
+     * fetched in full.
+     *
+     * @param budget the most API and classifier calls to make
+     * @throws TwitterException passed from the {@link #provider}.
+     * @throws ClassifierClient.UnavailableException if a batch of tweets
+     * could not be classified; those before it are kept
+     */
+    public void warm(int budget) throws TwitterException, ClassifierClient.UnavailableException {
+        callBudget = budget;
+        pagingWindow = 1;
+        try {
+            long id = resolveUserId();
+            if (profileStore != null)
+                warmProfile(id);
+
+            if (idSetStore != null) {
+                idSetStore.replace(idSetKey("followers"), getFollowers());
+                idSetStore.replace(idSetKey("friends"), getFriends());
             }
+        } catch (BudgetSpent e) {
+            // the rest waits for the next round
+        } finally {
+            callBudget = Integer.MAX_VALUE;
+        }
+    }
+
+    private void warmProfile(long id) throws TwitterException, ClassifierClient.UnavailableException {
+        // only created once there is a classified tweet to put in it, see recentActivity
+        ActivityProfile profile = profileStore.get(id);
+        long sinceId = profile == null ? 0 : profile.getLastTweetId();
+        if (sinceId == 0)
+            sinceId = highWaterMarks.get(HighWaterMarkStore.key(Long.toString(id), "timeline"));
+        TweetRecords tweets = getStatuses("timeline", Long.toString(id), sinceId,
+                (page, count, since) -> provider.getUserTimeline(id, page, count, since));
+
+        // oldest first (the records are newest first), in batches no larger than a single classification request
+        for (int to = tweets.size(); to > 0; to -= TOPIC_BATCH_SIZE) {
+            int from = Math.max(0, to - TOPIC_BATCH_SIZE);
+            List<String> texts = new ArrayList<>();
+            for (int i = to - 1; i >= from; i--) {
+                String processed = TopicDetection.preprocess(tweets.getText(i));
+                texts.add(processed == null ? "" : processed);
+            }
+
+            Map<String, JSONArray> response = classify(texts);
+            if (profile == null)
+                profile = profileStore.getOrCreate(id);
+            for (int i = to - 1, j = 0; i >= from; i--, j++) {
+                JSONArray classification = response.get(texts.get(j));
+                String topic = classification == null ? "" : TopicDetection.topLabel(classification);
+                profile.add(tweets.toEvent(i), topic);
+            }
+        }
+    }
+
+    /**
+     * Send one classification request, counting it against the budget.
+     *
+     * @throws ClassifierClient.UnavailableException if it was not answered
+     */
+    private Map<String, JSONArray> classify(List<String> texts) throws ClassifierClient.UnavailableException {
+        spend();
+        classifierCalls.incrementAndGet();
+        return new TopicDetection(texts).detectTopicsAll();
+    }
+
+    /**
+     * Check there is budget left for another call.
+     *
+     * @throws BudgetSpent if there is not
+     */
+    private void spend() {
+        if (apiCalls.get() + classifierCalls.get() >= callBudget)
+            throw BudgetSpent.INSTANCE;
+    }
+
+    /**
+     * Thrown when a warm-up has spent its budget, unwinding it to
+     * {@link #warm(int)}.
+     */
+    private static final class BudgetSpent extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private static final BudgetSpent INSTANCE = new BudgetSpent();
+
+        private BudgetSpent() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Raise the stored high water marks to the newest tweets this
+     * object has fetched. Only call this once what was fetched has
+     * been persisted: until then the next run fetches the same
+     * tweets again, so nothing is lost if classifying or writing
+     * them fails.
+     */
+    public void commitHighWaterMarks() {
+        for (Iterator<Map.Entry<String, Long>> it = pendingMarks.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> mark = it.next();
+            highWaterMarks.update(mark.getKey(), mark.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * @return the last API failure that a check passed over, giving
+     * a partial result rather than throwing, or null if none has
+     */
+    public TwitterException getFailure() {
+        return failure;
+    }
+
+    private void recordFailure(TwitterException e) {
+        e.printStackTrace();
+        failure = e;
+    }
+
+    /**
+     * @return the number of API calls made by this object so far
+     */
+    public int getApiCalls() {
+        return apiCalls.get();
+    }
+
+    /**
+     * @return the number of classification requests made by this
+     * object so far
+     */
+    public int getClassifierCalls() {
+        return classifierCalls.get();
+    }
+
+    /**
+     * @return the text of the tweets posted since the last check
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    public List<String> getTimeline() throws TwitterException {
+        return load(feed);
+    }
+
+    /**
+     * Fetch a set of ids only if it is already available, either
+     * loaded by this object or held in the off-heap store.
+     *
+     * @param value the lazily loaded set
+     * @param name  the name of the set, e.g. followers
+     * @return the ids, or null if they would have to be fetched
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private IdSet knownIds(LazyValue<IdSet> value, String name) throws TwitterException {
+        if (value.isLoaded()) return load(value);
+        if (idSetStore == null) return null;
+
+        OffHeapIdSet cached = idSetStore.acquire(idSetKey(name));
+        return cached == null ? null : hold(cached);
+    }
+
+    /**
+     * Page through a list of ids looking only for the given users,
+     * without keeping the ids.
+     * <p>
+     * Each id is first tested against a Bloom filter of the users,
+     * which rules out almost every id with a few probes of one cache
+     * line; only the possible hits are checked exactly.
+     *
+     * @param endpoint the name of the list, e.g. followers
+     * @param pager    fetches a single page
+     * @param users    list of user ids (long)
+     * @return id mapped too true if it was in the list, false if not
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private Map<Long, Boolean> scanForLinks(String endpoint, IdsPager pager, List<Long> users) throws TwitterException {
+        Map<Long, Boolean> result = new HashMap<>();
+        long[] sorted = new long[users.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = users.get(i);
+            result.put(sorted[i], false);
+        }
+        Arrays.sort(sorted);
+        BloomFilter filter = BloomFilter.of(sorted);
+
+        pageIds(endpoint, pager, page -> {
+            int hits = 0;
+            for (long id : page) {
+                if (filter.mightContain(id) && Arrays.binarySearch(sorted, id) >= 0) {
+                    result.put(id, true);
+                    hits++;
+                }
+            }
+            return hits;
+        });
+        return result;
+    }
+
+    /**
+     * Page through a list of ids by cursor, passing each page on
+     * as it arrives.
+     *
+     * @param endpoint the name of the list, e.g. followers
+     * @param pager    fetches a single page
+     * @param consumer handles a page, returning how many ids it kept
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private void pageIds(String endpoint, IdsPager pager, IdPageConsumer consumer) throws TwitterException {
+        IdPage ids;
+        long cursor = -1;
+        int items = 0;
+
+        PagingEvent event = new PagingEvent();
+        event.begin();
+        do {
+            spend();
+            ids = pager.page(cursor);
+            event.pages++;
+            apiCalls.incrementAndGet();
+            items += consumer.accept(ids.getIDs());
+        } while ((cursor = ids.getNextCursor()) != 0);
+
+        commitPaging(event, endpoint, items);
+    }
+
+    /**
+     * Fetch a memoized data set, unwrapping the API error
+     * if the load failed.
+     *
+     * @param value the lazily loaded data set
+     * @param <T>   the type of the data set
+     * @return the loaded data set
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private <T> T load(LazyValue<T> value) throws TwitterException {
+        try {
+            return value.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TwitterException) throw (TwitterException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
         }
     }
 
@@ -99,21 +582,14 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
     public Map<Long, Boolean> checkForLinksFollowing(List<Long> users) {
         Map<Long, Boolean> result = new HashMap<>();
         try {
-            for (long l : users)
-                result.put(l, false);
-
-            IDs ids = getFollowers();
-            for (long u : users) {
-                for (long anId : ids.getIDs()) {
-                    if (u == anId) {
-                        result.put(anId, true);
-                        break;
-                    }
-                }
-            }
+            IdSet ids = knownIds(followers, "followers");
+            if (ids == null)
+                return scanForLinks("followers", this::followersPage, users);
 
+            for (long u : users)
+                result.put(u, ids.contains(u));
         } catch (TwitterException e) {
-            e.printStackTrace();
+            recordFailure(e);
         }
         return result;
     }
@@ -122,22 +598,17 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
      * Fetch the followers of the given user (passed when the object
      * was created).
      *
-     * @return the IDs of the followers.
-     * @throws TwitterException passed from the {@link #twitterInstance} API.
+     * @return the IDs of the followers, across every page, compressed.
+     * @throws TwitterException passed from the {@link #provider}.
      */
-    private IDs getFollowers() throws TwitterException {
-        IDs ids;
-        long cursor = -1;
-
-        do {
-            if (userId == 0)
-                ids = twitterInstance.getFollowersIDs(username, cursor);
-            else
-                ids = twitterInstance.getFollowersIDs(userId, cursor);
-            System.out.println("IDS (Followers): " + ids);
-        } while ((cursor = ids.getNextCursor()) != 0);
+    private IdSet getFollowers() throws TwitterException {
+        IdCollector collector = new IdCollector();
+        pageIds("followers", this::followersPage, collector);
+        return collector.toIdSet();
+    }
 
-        return ids;
+    private IdPage followersPage(long cursor) throws TwitterException {
+        return provider.getFollowersIDs(resolveUserId(), cursor);
     }
 
     /**
@@ -155,21 +626,14 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
     public Map<Long, Boolean> checkForLinksFriends(List<Long> users) {
         Map<Long, Boolean> result = new HashMap<>();
         try {
-            for (long l : users)
-                result.put(l, false);
-
-            IDs ids = getFriends();
+            IdSet ids = knownIds(friends, "friends");
+            if (ids == null)
+                return scanForLinks("friends", this::friendsPage, users);
 
-            for (long u : users) {
-                for (long anId : ids.getIDs()) {
-                    if (u == anId) {
-                        result.put(anId, true);
-                        break;
-                    }
-                }
-            }
+            for (long u : users)
+                result.put(u, ids.contains(u));
         } catch (TwitterException e) {
-            e.printStackTrace();
+            recordFailure(e);
         }
         return result;
     }
@@ -179,22 +643,216 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
      * Fetch the friends of a given user (passed when the
      * object was created).
      *
-     * @return ids of the friends.
-     * @throws TwitterException passed from the {@link #twitterInstance} API.
+     * @return ids of the friends, across every page, compressed.
+     * @throws TwitterException passed from the {@link #provider}.
      */
-    private IDs getFriends() throws TwitterException {
-        IDs ids;
-        long cursor = -1;
+    private IdSet getFriends() throws TwitterException {
+        IdCollector collector = new IdCollector();
+        pageIds("friends", this::friendsPage, collector);
+        return collector.toIdSet();
+    }
 
-        do {
-            if (userId == 0)
-                ids = twitterInstance.getFriendsIDs(username, cursor);
-            else
-                ids = twitterInstance.getFriendsIDs(userId, cursor);
-            System.out.println("IDS (Friends): " + ids);
-        } while ((cursor = ids.getNextCursor()) != 0);
+    private IdPage friendsPage(long cursor) throws TwitterException {
+        return provider.getFriendsIDs(resolveUserId(), cursor);
+    }
+
+    /**
+     * Given a list of users, check which of them can be reached from
+     * the user passed at the creation of the object within two hops,
+     * i.e. the user follows them or follows someone who follows them.
+     *
+     * @param users list of user ids (long)
+     * @return id mapped too true if there is a link, false if not
+     */
+    @Override
+    public Map<Long, Boolean> checkForTwoHopLinks(List<Long> users) {
+        Map<Long, Boolean> result = new HashMap<>();
+        for (long l : users)
+            result.put(l, false);
+
+        try {
+            CsrGraph g = linkGraph(users);
+            int source = g.index(resolveUserId());
+            if (source < 0) return result;
+
+            BitSet reachable = GraphAnalysis.twoHopReachable(g, source, indices(g, users));
+            for (int i = 0; i < users.size(); i++)
+                if (reachable.get(i)) result.put(users.get(i), true);
+        } catch (TwitterException e) {
+            recordFailure(e);
+        }
+        return result;
+    }
+
+    /**
+     * Given a list of users, count how many neighbours (followers
+     * or friends) each of them shares with the user passed at the
+     * creation of the object.
+     *
+     * @param users list of user ids (long)
+     * @return id mapped too the number of common neighbours
+     */
+    @Override
+    public Map<Long, Integer> commonNeighbours(List<Long> users) {
+        Map<Long, Integer> result = new HashMap<>();
+        for (long l : users)
+            result.put(l, 0);
+
+        try {
+            CsrGraph g = linkGraph(users);
+            int source = g.index(resolveUserId());
+            if (source < 0) return result;
+
+            int[] targets = indices(g, users);
+            int[] counts = GraphAnalysis.commonNeighbours(g, source, targets);
+            for (int i = 0; i < users.size(); i++)
+                if (targets[i] >= 0) result.put(users.get(i), counts[i]);
+        } catch (TwitterException e) {
+            recordFailure(e);
+        }
+        return result;
+    }
+
+    /**
+     * Score how close the user passed at the creation of the object
+     * is to the given users, as their personalized PageRank with
+     * every random jump returning to one of the given users.
+     *
+     * @param users list of user ids (long)
+     * @return the rank of the user, between 0 and 1
+     */
+    @Override
+    public double personalizedPageRank(List<Long> users) {
+        try {
+            CsrGraph g = linkGraph(users);
+            int source = g.index(resolveUserId());
+            if (source < 0) return 0;
+
+            int[] seeds = Arrays.stream(indices(g, users)).filter(i -> i >= 0).toArray();
+            if (seeds.length == 0) return 0;
+
+            return GraphAnalysis.personalizedPageRank(g, seeds, DAMPING, PAGE_RANK_ITERATIONS)[source];
+        } catch (TwitterException e) {
+            recordFailure(e);
+            return 0;
+        }
+    }
+
+    /**
+     * Build (once per list of users) the graph formed by the follower
+     * and friend edges of the user and of the given users.
+     *
+     * The given users' edges are taken from the {@link StaticNetwork}
+     * when one covering them has been set, otherwise they are fetched.
+     *
+     * @param users list of user ids (long)
+     * @return the graph
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private synchronized CsrGraph linkGraph(List<Long> users) throws TwitterException {
+        if (graph != null && users.equals(graphUsers))
+            return graph;
+
+        long id = resolveUserId();
+        CsrGraph.Builder builder = new CsrGraph.Builder()
+                .addFollowers(id, load(followers))
+                .addFriends(id, load(friends));
+
+        boolean covered = staticNetwork != null && staticNetwork.covers(users);
+        for (long u : users) {
+            if (covered) {
+                builder.addFollowers(u, staticNetwork.getFollowers(u))
+                        .addFriends(u, staticNetwork.getFriends(u));
+            } else {
+                LinkAnalysisTwitter link = new LinkAnalysisTwitter(u, provider, null);
+                builder.addFollowers(u, link.getFollowerIds())
+                        .addFriends(u, link.getFriendIds());
+            }
+        }
+
+        graphUsers = new ArrayList<>(users);
+        graph = builder.build();
+        return graph;
+    }
+
+    private static int[] indices(CsrGraph g, List<Long> users) {
+        int[] result = new int[users.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = g.index(users.get(i));
+        return result;
+    }
+
+    /**
+     * Keep the follower and friend ids in (and reuse them from)
+     * an off-heap store shared with other objects.
+     *
+     * @param idSetStore the store
+     */
+    public void setIdSetStore(OffHeapIdSetStore idSetStore) {
+        this.idSetStore = idSetStore;
+    }
+
+    /**
+     * Take the recent activity from profiles kept current by an
+     * activity stream, rather than fetching and classifying the
+     * timeline. Users without a profile are fetched as before.
+     *
+     * @param profileStore the profiles
+     */
+    public void setProfileStore(ActivityProfileStore profileStore) {
+        this.profileStore = profileStore;
+    }
+
+    /**
+     * Include the tweets the user has liked, and their interactions
+     * with the static users, in the recent activity. Off by default
+     * as it costs a classification request per 20 likes.
+     *
+     * @param includeFavourites true to include the likes
+     */
+    public void setIncludeFavourites(boolean includeFavourites) {
+        this.includeFavourites = includeFavourites;
+    }
+
+    /**
+     * Set how many pages of the timeline and favourites are fetched
+     * at once; 1 fetches them one after the other. More pages in
+     * flight mean fewer round trips, at the cost of API calls
+     * spent on pages past the last check.
+     *
+     * @param pagingWindow the most pages in flight, at least 1
+     */
+    public void setPagingWindow(int pagingWindow) {
+        this.pagingWindow = Math.max(1, pagingWindow);
+    }
+
+    private static int pagingWindow(Config config) {
+        try {
+            return Math.max(1, config.getInt("paging.window", DEFAULT_PAGING_WINDOW));
+        } catch (NumberFormatException e) {
+            return DEFAULT_PAGING_WINDOW;
+        }
+    }
+
+    /**
+     * Set how much of the stored history {@link #recentActivity(List)}
+     * returns: the latest entry and at least this many before it.
+     * Only those are read from a compressed history.
+     *
+     * @param activityWindow the past entries wanted
+     */
+    public void setActivityWindow(int activityWindow) {
+        this.activityWindow = activityWindow;
+    }
 
-        return ids;
+    /**
+     * Use a precomputed network for the static users' edges
+     * rather than fetching them.
+     *
+     * @param staticNetwork the refreshed static user network
+     */
+    public void setStaticNetwork(StaticNetwork staticNetwork) {
+        this.staticNetwork = staticNetwork;
     }
 
     /**
@@ -207,9 +865,26 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
      * since being last checked and the static users that they've
      * interacted with in the meantime.
      *
+     * When a profile store has been set and holds a profile for the
+     * user with tweets in it, the timeline and topics are taken from
+     * it instead.
+     * <p>
+     * An entry is only written when topics were found in new
+     * activity, and the high water marks are only raised once it
+     * has been written. With nothing new (e.g. a retried login) the
+     * history is returned as it stands, so its latest snapshot is
+     * the one checked; if classifying or writing fails, the same
+     * tweets are fetched again next time. A profile is likewise
+     * only drained once its snapshot has been written.
+     *
      * @param users     the static users
-     * @return JSONObject of all the most recent social
-     *                  media activity from the user in question.
+     * @return JSONObject of the most recent social media
+     *                  activity from the user in question, the latest
+     *                  entry and at least the activity window before it,
+     *                  see {@link #setActivityWindow(int)}.
+     * @throws ClassifierClient.UnavailableException if the new tweets could
+     *                  not be classified, in which case nothing is written
+     * @throws IOException if the history could not be written or read
      */
     @Override
     public JSONObject recentActivity(List<Long> users) throws IOException {
@@ -222,12 +897,34 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
         else
             lastChecked = new SimpleDateFormat("dd-MM-yyyy-HH:mm:ss").format(since);
 
-//        Map<String, JSONArray> favourites = processFavouritesInteractions(users);
-//        JSONArray tweetsLiked = favourites.get("tweets_liked");
-//        JSONArray staticUsers = favourites.get("static_users_interacted_with");
 
 
-        JSONArray topicsPosted = topicsPosted(feed);
+        resolveUserIdQuietly();
+        List<String> feed;
+        JSONArray topicsPosted;
+
+        ActivityProfile profile = profileStore == null ? null : profileStore.get(userId);
+        ActivityProfile.Snapshot snapshot = profile == null ? null : profile.snapshot();
+        // a profile with nothing in it yet says nothing, the timeline is fetched as usual
+        if (snapshot != null && snapshot.getTimeline().isEmpty())
+            snapshot = null;
+        if (snapshot != null) {
+            // kept current by the activity stream, nothing to fetch or classify
+            feed = snapshot.getTimeline();
+            // once written, the profile's tweets need not be fetched by a login without it
+            if (snapshot.getLastTweetId() > 0)
+                pendingMarks.merge(HighWaterMarkStore.key(Long.toString(userId), "timeline"),
+                        snapshot.getLastTweetId(), Math::max);
+            topicsPosted = snapshot.getTopicsPosted();
+        } else {
+            try {
+                feed = load(this.feed);
+            } catch (TwitterException e) {
+                recordFailure(e);
+                feed = new ArrayList<>();
+            }
+            topicsPosted = feed.isEmpty() ? new JSONArray() : topicsPosted(feed);
+        }
 
 
         // package the json object
@@ -235,10 +932,10 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
         inner.put("user_id", userId);
         inner.put("current_date", currentDate);
         inner.put("last_checked", lastChecked);
-        //inner.put("tweets_liked", tweetsLiked);
         inner.put("timeline_since_last_checked", feed);
         inner.put("topics_posted", topicsPosted);
-        //inner.put("static_users_interacted_with", staticUsers);
+        if (includeFavourites)
+            inner.putAll(processFavouritesInteractions(users));
 
         //JSONObject result = new JSONObject();
         //result.put("activity_" + currentDate, inner);
@@ -247,14 +944,19 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
         //result.put(userId, outer);
 
         Utility utility = new Utility();
-        try {
-            utility.writeJSON(inner, Long.toString(userId));
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!topicsPosted.isEmpty()) {
+            try {
+                utility.writeJSON(inner, Long.toString(userId));
+                commitHighWaterMarks();
+                if (snapshot != null)
+                    profile.drain(snapshot);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
 
 
-        return utility.readInJSON(Long.toString(userId));
+        return utility.readLatestJSON(Long.toString(userId), activityWindow + 1);
 
     }
 
@@ -266,26 +968,14 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
      * @param feed
      * @return
      */
-    private JSONArray topicsPosted(List<String> feed) {
-        TopicDetection detection = new TopicDetection(feed);
-        Map<String, JSONArray> response = detection.detectTopicsAll();
+    private JSONArray topicsPosted(List<String> feed) throws ClassifierClient.UnavailableException {
+        Map<String, JSONArray> response = classify(feed);
 
 
         Map<String, Integer> countMap = new HashMap<>();
         for (Map.Entry<String, JSONArray> m : response.entrySet()) {
-            JSONArray current = m.getValue();
-            double probability = 0.000;
-            String label = "";
-            for (int i = 0; i < current.size(); i++) {
-                JSONObject inner = (JSONObject) current.get(i);
-                double currentProbability = (double) inner.get("probability");
-
-                // pick the label that has the highest probability
-                if (currentProbability > probability) {
-                    probability = currentProbability;
-                    label = (String) inner.get("label");
-                }
-            }
+            // pick the label that has the highest probability
+            String label = TopicDetection.topLabel(m.getValue());
 
             // if the label is an empty string then it could not be determined
             if (label.isEmpty())
@@ -298,178 +988,247 @@ public class LinkAnalysisTwitter implements LinkAnalysis {
             }
         }
 
-
-        Map<String, Integer> sortedMap;
-        if (countMap.size() <= 1)
-            sortedMap = countMap;
-        else
-            sortedMap = MapSorter.valueDescending(countMap);
-
-        // convert to JSON Array
-        JSONArray result = new JSONArray();
-        for (Map.Entry<String, Integer> m : sortedMap.entrySet()) {
-            JSONObject jsonObject = new JSONObject();
-            jsonObject.put("topic", m.getKey());
-            jsonObject.put("frequency", m.getValue());
-            result.add(jsonObject);
-        }
-
-        return result;
+        return TopicDetection.countsToJSON(countMap);
     }
 
 
-    private Map<String, JSONArray> processFavouritesInteractions(List<Long> users) {
-        //TopicDetection detection = new TopicDetection(feed);
+    /**
+     * Process the tweets the user has liked since the last check,
+     * in a single pass.
+     * <p>
+     * Each like of a tweet by one of the static users is recorded as
+     * an interaction, checked against a primitive hash set of their
+     * ids. The liked tweets are classified in batches, one request per
+     * {@value #TOPIC_BATCH_SIZE} tweets, and kept as compact records
+     * (no text) up to {@value #MAX_LIKED_RECORDS} of them; the topic
+     * counts cover every liked tweet.
+     *
+     * @param users the static users
+     * @return tweets_liked, topics_liked and static_users_interacted_with
+     */
+    private Map<String, JSONArray> processFavouritesInteractions(List<Long> users)
+            throws ClassifierClient.UnavailableException {
         Map<String, JSONArray> result = new HashMap<>();
         JSONArray tweetsLiked = new JSONArray();
         JSONArray interactions = new JSONArray();
+        Map<String, Integer> topicCounts = new HashMap<>();
+        LongHashSet staticUsers = LongHashSet.of(users);
+
         try {
-            List<Status> favourites = getFavourites();
-
-            // need to send the monkey learn requests in batches.
-            List<String> textBatch = new ArrayList<>();
-            for (Status s : favourites)
-                textBatch.add(s.getText());
-            TopicDetection detection = new TopicDetection(textBatch);
-            Map<String, JSONArray> detectionResult = detection.detectTopicsAll();
-
-
-            JSONObject usersInteracted = new JSONObject();
-            for (Status status : favourites) {
-                if (users.contains(status.getUser().getId())) {
-                    usersInteracted.put("user_id", status.getUser().getId());
-                    usersInteracted.put("method", "favourite");
-                    usersInteracted.put("tweet_created", status.getCreatedAt());
-                    interactions.add(usersInteracted);
-                    usersInteracted = new JSONObject();
+            TweetRecords favourites = load(this.favourites);
+
+            for (int from = 0; from < favourites.size(); from += TOPIC_BATCH_SIZE) {
+                int to = Math.min(favourites.size(), from + TOPIC_BATCH_SIZE);
+                List<String> texts = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    String processed = TopicDetection.preprocess(favourites.getText(i));
+                    texts.add(processed == null ? "" : processed);
                 }
-            }
-            result.put("static_users_interacted_with", interactions);
-
-            JSONObject tweetsLikedObj = new JSONObject();
-//            for (Status status : favourites) {
-//                for (Map.Entry<String, JSONArray> m: detectionResult.entrySet()) {
-//                    if (status.getText().contains(m.getKey())) {
-//                        double probability = 0.0;
-//                        String label = "";
-//                        for (Object t : m.getValue()) {
-//                            JSONObject jsonObject = (JSONObject) t;
-//                            if (probability < (double) jsonObject.get("probability")) {
-//                                probability = (double) jsonObject.get("probability");
-//                                label = (String) jsonObject.get("label");
-//                        }
-//
-//
-//                    }
-//                }
-//            }
-
-            //System.out.println("FAVOURITES: " + favourites);
-
-            int i = 0;
-            for (Status s : favourites) {
-                //System.out.println("VALUE OF i: " + i);
-                // process topics
-                JSONArray topic = detection.detectTopicSingular(s.getText());
-                //System.out.println("TOPIC AFTER DETECTION, SINGULAR: " + topic);
-                double probability = 0.0;
-                String label = "";
-                for (Object t : topic) {
-                    JSONArray arrObj = (JSONArray) t;
-                    for (Object obj : arrObj) {
-                        JSONObject jsonObj = (JSONObject) obj;
-                        if (probability < (double) jsonObj.get("probability")) {
-                            probability = (double) jsonObj.get("probability");
-                            label = (String) jsonObj.get("label");
-                        }
+                Map<String, JSONArray> detectionResult = classify(texts);
+
+                for (int i = from; i < to; i++) {
+                    long creator = favourites.getAuthorId(i);
+
+                    // if the user has liked a tweet by one of the static users
+                    if (staticUsers.contains(creator)) {
+                        JSONObject usersInteracted = new JSONObject();
+                        usersInteracted.put("user_id", creator);
+                        usersInteracted.put("method", "favourite");
+                        usersInteracted.put("tweet_created", favourites.getCreatedAt(i));
+                        interactions.add(usersInteracted);
                     }
 
+                    JSONArray classification = detectionResult.get(texts.get(i - from));
+                    String label = classification == null ? "" : TopicDetection.topLabel(classification);
+                    if (!label.isEmpty())
+                        topicCounts.merge(label, 1, Integer::sum);
+
+                    if (tweetsLiked.size() < MAX_LIKED_RECORDS) {
+                        JSONObject tweetsLikedObj = new JSONObject();
+                        tweetsLikedObj.put("tweet_id", favourites.getId(i));
+                        tweetsLikedObj.put("creator_id", creator);
+                        tweetsLikedObj.put("tweet_topic_label", label);
+                        tweetsLiked.add(tweetsLikedObj);
+                    }
                 }
-
-                tweetsLikedObj.put("tweet_text", s.getText());
-                tweetsLikedObj.put("tweet_topic_label", label);
-                tweetsLikedObj.put("tweet_topic_probability", probability);
-                tweetsLikedObj.put("creator_id", s.getUser().getId());
-                tweetsLikedObj.put("tweet_id", s.getId());
-                tweetsLiked.add(tweetsLikedObj);
-                tweetsLikedObj = new JSONObject();
-
-                // if the user has liked a tweet by one of the static users
-//                if (users.contains(s.getUser().getId())) {
-//                    usersInteracted.put("user_id", s.getUser().getId());
-//                    usersInteracted.put("method", "favourite");
-//                    usersInteracted.put("tweet_created", s.getCreatedAt());
-//                    interactions.add(usersInteracted);
-//                    usersInteracted = new JSONObject();
-//                }
-                i++;
             }
-            result.put("tweets_liked", tweetsLiked);
-
-
         } catch (TwitterException e) {
-            e.printStackTrace();
+            recordFailure(e);
         }
-        //System.out.println("RESULT: " + result);
+
+        result.put("tweets_liked", tweetsLiked);
+        result.put("topics_liked", TopicDetection.countsToJSON(topicCounts));
+        result.put("static_users_interacted_with", interactions);
         return result;
     }
 
 
-    private List<Status> getFavourites() throws TwitterException {
-        List<Status> result = new ArrayList<>();
-        Paging paging = new Paging(1);
-        List<Status> temp;
-        outerloop:
-        do {
-            if (userId == 0)
-                temp = twitterInstance.getFavorites(username, paging);
-            else
-                temp = twitterInstance.getFavorites(userId, paging);
-
-            for (Status s : temp) {
-                if ((s.getCreatedAt()).after(since))
-                    result.add(s);
-                else if (s.getCreatedAt().before(since))
-                    break outerloop;
-            }
+    /**
+     * Fetch the tweets the user has liked since the last check.
+     *
+     * @return the liked tweets, newest first
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private TweetRecords getFavourites() throws TwitterException {
+        String user = userId == 0 ? username : Long.toString(userId);
+        return getStatuses("favourites", user, highWaterMarks.get(HighWaterMarkStore.key(user, "favourites")),
+                (page, count, sinceId) -> provider.getFavourites(resolveUserId(), page, count, sinceId));
+    }
 
-            temp.clear();
-            paging.setPage(paging.getPage() + 1);
-        } while (temp.size() > 0);
+    /**
+     * Fetch the tweets the user has posted since the last check.
+     *
+     * @param userId the user whose timeline is fetched
+     * @return the posted tweets, newest first
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private TweetRecords getTweets(long userId) throws TwitterException {
+        String user = Long.toString(userId);
+        return getStatuses("timeline", user, highWaterMarks.get(HighWaterMarkStore.key(user, "timeline")),
+                (page, count, sinceId) -> provider.getUserTimeline(userId, page, count, sinceId));
+    }
+
+    /**
+     * Page through a feed of statuses newer than a {@code since_id},
+     * usually the stored high water mark, fetching up to
+     * {@link #pagingWindow} pages at once with a {@link PageFetcher}.
+     * <p>
+     * Paging stops at an empty page or once a tweet is older than
+     * {@link #since}; speculative pages beyond that are discarded.
+     * Pages after the first are only fetched ahead if it was full.
+     * A tweet can appear on two pages if new tweets are posted
+     * while paging, so tweets are kept once by id. The newest
+     * tweet fetched is held as a pending mark and only stored by
+     * {@link #commitHighWaterMarks()}, once the tweets have been
+     * persisted.
+     *
+     * @param feed    the name of the feed, used for the mark and event
+     * @param user    the user id or username, used for the mark
+     * @param sinceId only tweets newer than this are fetched
+     * @param pager   fetches a single page
+     * @return the tweets, projected into columns, newest first
+     * @throws TwitterException passed from the {@link #provider}.
+     */
+    private TweetRecords getStatuses(String feed, String user, long sinceId, StatusPager pager) throws TwitterException {
+        TweetRecords result = new TweetRecords(PAGE_SIZE);
+        String key = HighWaterMarkStore.key(user, feed);
+        long sinceTime = since == null ? Long.MIN_VALUE : since.getTime();
+        LongHashSet seen = new LongHashSet(PAGE_SIZE);
+        long[] newest = {0};
+
+        PagingEvent event = new PagingEvent();
+        event.begin();
+        AtomicInteger pages = new AtomicInteger();
+        try {
+            new PageFetcher<TweetRecords>(pagingWindow, MAX_STATUS_PAGES).fetch(page -> {
+                spend();
+                pages.incrementAndGet();
+                apiCalls.incrementAndGet();
+                return pager.page(page, PAGE_SIZE, sinceId);
+            }, page -> {
+                if (page.isEmpty()) return true;
+                for (int i = 0; i < page.size(); i++) {
+                    long id = page.getId(i);
+                    long created = page.getCreatedAt(i);
+                    if (since == null || created > sinceTime) {
+                        if (seen.add(id))
+                            result.add(id, created, page.getAuthorId(i), page.getText(i));
+                        newest[0] = Math.max(newest[0], id);
+                    } else if (created < sinceTime) {
+                        return true;
+                    }
+                }
+                return false;
+            }, page -> page.size() >= PAGE_SIZE);
+        } finally {
+            event.pages = pages.get();
+        }
+
+        if (newest[0] > 0)
+            pendingMarks.merge(key, newest[0], Math::max);
 
+        commitPaging(event, feed, result.size());
         return result;
     }
 
+    /**
+     * Finish a paging event and record it if Flight Recorder
+     * is listening for it.
+     *
+     * @param event    the event started before the first page
+     * @param endpoint the API endpoint that was paged
+     * @param items    the number of items kept from the pages
+     */
+    private void commitPaging(PagingEvent event, String endpoint, int items) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.userId = userId;
+            event.endpoint = endpoint;
+            event.items = items;
+            event.commit();
+        }
+    }
 
-    private List<Status> getTweets(long userId) throws IndexOutOfBoundsException, TwitterException {
-        List<Status> list = new ArrayList<>();
+    private void resolveUserIdQuietly() {
+        try {
+            resolveUserId();
+        } catch (TwitterException e) {
+            recordFailure(e);
+        }
+    }
 
-        Paging paging = new Paging(1);
-        List<Status> temp;
-        outerLoop:
-        do {
-            temp = twitterInstance.getUserTimeline(userId, paging);
+    private JSONObject packageJSON() {
+        return new JSONObject();
+    }
 
-            //System.out.println("TEMP SIZE: " + temp.size());
-            Status lastStatus = temp.get(temp.size() - 1);
+    /**
+     * Fetch a set of ids.
+     */
+    private interface IdSetLoader {
+        IdSet load() throws TwitterException;
+    }
 
-            for (Status s : temp) {
-                if (s.getCreatedAt().after(since)) {
-                    list.add(s);
-                } else if (s.getCreatedAt().before(since)) {
-                    break outerLoop;
-                }
-            }
+    /**
+     * Fetch a single page of ids.
+     */
+    private interface IdsPager {
+        IdPage page(long cursor) throws TwitterException;
+    }
+
+    /**
+     * Handle a single page of ids, returning how many were kept.
+     */
+    private interface IdPageConsumer {
+        int accept(long[] page);
+    }
 
+    /**
+     * Keeps every page of ids, to be compressed once paging ends.
+     */
+    private static class IdCollector implements IdPageConsumer {
+        private long[] ids = new long[0];
+        private int size = 0;
+
+        @Override
+        public int accept(long[] page) {
+            if (size + page.length > ids.length)
+                ids = Arrays.copyOf(ids, Math.max(size + page.length, ids.length * 2));
+            System.arraycopy(page, 0, ids, size, page.length);
+            size += page.length;
+            return page.length;
+        }
 
-            temp.clear();
-            paging.setPage(paging.getPage() + 1);
-        } while (list.size() > 0);
-        //System.out.println("LIST: " + list);
-        return list;
+        private IdSet toIdSet() {
+            long[] sorted = Arrays.copyOf(ids, size);
+            Arrays.sort(sorted);
+            return CompressedIdSet.ofSorted(sorted, size);
+        }
     }
 
-    private JSONObject packageJSON() {
-        return new JSONObject();
+    /**
+     * Fetch a single page of statuses.
+     */
+    private interface StatusPager {
+        TweetRecords page(int page, int count, long sinceId) throws TwitterException;
     }
 }
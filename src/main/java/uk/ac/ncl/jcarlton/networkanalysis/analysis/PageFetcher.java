@@ -0,0 +1,152 @@
+package uk.ac.ncl.jcarlton.networkanalysis.analysis;
+
+import twitter4j.TwitterException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+/**
+ * Fetch numbered pages several at a time, so a feed of many
+ * pages loads in about one or two round trips rather than one
+ * per page.
+ * <p>
+ * The first page is fetched alone, as most feeds checked often
+ * fit on it; only if it was full and the handler wants the pages
+ * after it are up to {@code window} pages put in flight at once,
+ * otherwise the rest are fetched one at a time. Pages are
+ * handed to a {@link PageHandler} in order as they arrive, so
+ * each can be used and dropped before the next is handled.
+ * When the handler reports a page is the last (e.g. it was empty
+ * or held a tweet older than the last check) no further pages are
+ * issued, and any speculative pages after it are cancelled or, if
+ * they already arrived, discarded.
+ *
+ * @param <P> the type of a page
+ */
+final class PageFetcher<P> {
+
+    /**
+     * Fetch a single numbered page, starting from 1.
+     */
+    interface PageLoader<P> {
+        P page(int page) throws TwitterException;
+    }
+
+    /**
+     * Handle one page, in page order.
+     */
+    interface PageHandler<P> {
+        /**
+         * @param page the page
+         * @return true if no pages after this one are wanted, e.g.
+         * it was empty
+         */
+        boolean handle(P page);
+    }
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "page-fetcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int window;
+    private final int maxPages;
+
+    private int fetched = 0;
+    private int discarded = 0;
+
+    /**
+     * @param window   the most pages in flight at once, 1 to fetch
+     *                 one page at a time
+     * @param maxPages the last page the endpoint will return
+     */
+    PageFetcher(int window, int maxPages) {
+        this.window = Math.max(1, window);
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Fetch pages until the handler reports the last one.
+     *
+     * @param loader  fetches one page
+     * @param handler receives each page up to and including the
+     *                last
+     * @param full    whether a page held as many items as a page can,
+     *                so the feed may go on past it
+     * @throws TwitterException from the first page that failed
+     */
+    void fetch(PageLoader<P> loader, PageHandler<P> handler, Predicate<P> full) throws TwitterException {
+        List<Future<P>> inFlight = new ArrayList<>();
+        int next = 1;
+
+        // no speculative pages until the first shows there are likely more
+        P first = loader.page(next++);
+        fetched++;
+        if (handler.handle(first)) return;
+        boolean windowed = window > 1 && full.test(first);
+
+        // when there is only one page in flight there is nothing to gain from another thread
+        if (!windowed) {
+            while (next <= maxPages) {
+                P page = loader.page(next++);
+                fetched++;
+                if (handler.handle(page)) break;
+            }
+            return;
+        }
+
+        try {
+            while (next <= maxPages && inFlight.size() < window)
+                inFlight.add(submit(loader, next++));
+
+            while (!inFlight.isEmpty()) {
+                P page = await(inFlight.remove(0));
+                fetched++;
+                if (handler.handle(page)) break;
+
+                if (next <= maxPages)
+                    inFlight.add(submit(loader, next++));
+            }
+        } finally {
+            // speculative pages past the boundary
+            for (Future<P> f : inFlight) {
+                if (!f.cancel(true)) discarded++;
+            }
+        }
+    }
+
+    private Future<P> submit(PageLoader<P> loader, int page) {
+        return EXECUTOR.submit(() -> loader.page(page));
+    }
+
+    private P await(Future<P> future) throws TwitterException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TwitterException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TwitterException)
+                throw (TwitterException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the pages handled so far
+     */
+    int getFetched() {
+        return fetched;
+    }
+
+    /**
+     * @return the speculative pages that arrived but were past
+     * the boundary
+     */
+    int getDiscarded() {
+        return discarded;
+    }
+}
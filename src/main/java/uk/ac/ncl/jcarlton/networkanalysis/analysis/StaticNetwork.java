@@ -0,0 +1,285 @@
+package uk.ac.ncl.jcarlton.networkanalysis.analysis;
+
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SocialNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.util.IdSet;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A precomputed picture of the network formed by the static
+ * users, shared between every decision.
+ * <p>
+ * The follower and friend ids of each static user are fetched
+ * once per {@link #refresh()} rather than once per requesting
+ * user. Questions about how a requesting user is linked to the
+ * static users are then answered by probing those sets, without
+ * any API calls for the requesting user. The follow links between
+ * the static users themselves are held as a bitset adjacency
+ * matrix.
+ * <p>
+ * A refresh builds a new snapshot and swaps it in whole, so
+ * checks never see a half refreshed network. Refreshes can be
+ * run on a schedule with {@link #scheduleRefresh(long, TimeUnit)}.
+ */
+public class StaticNetwork {
+
+    private final List<Long> staticUsers;
+    private final SocialNetworkProvider provider;
+
+    private volatile Snapshot snapshot;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Object constructor, nothing is fetched until the first
+     * {@link #refresh()}.
+     *
+     * @param staticUsers     a list of user ids
+     * @param twitterInstance pre-authenticated instance of the Twitter4j
+     *                        Twitter API.
+     */
+    public StaticNetwork(List<Long> staticUsers, Twitter twitterInstance) {
+        this(staticUsers, new TwitterNetworkProvider(twitterInstance));
+    }
+
+    /**
+     * Object constructor, nothing is fetched until the first
+     * {@link #refresh()}.
+     *
+     * @param staticUsers a list of user ids
+     * @param provider    the social network to fetch from
+     */
+    public StaticNetwork(List<Long> staticUsers, SocialNetworkProvider provider) {
+        this.staticUsers = Collections.unmodifiableList(new ArrayList<>(staticUsers));
+        this.provider = provider;
+    }
+
+    /**
+     * Fetch the follower and friend ids of every static user and
+     * swap in the new network.
+     *
+     * @throws TwitterException passed from the {@link #provider},
+     *                          the previous network is kept.
+     */
+    public synchronized void refresh() throws TwitterException {
+        int n = staticUsers.size();
+        long[] ids = new long[n];
+        IdSet[] followers = new IdSet[n];
+        IdSet[] friends = new IdSet[n];
+
+        for (int i = 0; i < n; i++) {
+            ids[i] = staticUsers.get(i);
+            LinkAnalysisTwitter link = new LinkAnalysisTwitter(ids[i], provider, null);
+            followers[i] = link.getFollowerIds();
+            friends[i] = link.getFriendIds();
+        }
+
+        // i follows j when j is one of i's friends
+        BitSet[] follows = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            follows[i] = new BitSet(n);
+            for (int j = 0; j < n; j++) {
+                if (i != j && friends[i].contains(ids[j]))
+                    follows[i].set(j);
+            }
+        }
+
+        snapshot = new Snapshot(ids, followers, friends, follows, System.currentTimeMillis());
+    }
+
+    /**
+     * Refresh the network in the background at a fixed rate,
+     * starting immediately.
+     *
+     * @param period time between refreshes
+     * @param unit   the unit of the period
+     */
+    public synchronized void scheduleRefresh(long period, TimeUnit unit) {
+        if (scheduler != null) scheduler.shutdownNow();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "static-network-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                refresh();
+            } catch (TwitterException e) {
+                e.printStackTrace();
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stop any scheduled refreshes.
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @param users list of user ids
+     * @return true if the network has been fetched and every
+     * given user is one of its static users
+     */
+    public boolean covers(List<Long> users) {
+        Snapshot current = snapshot;
+        if (current == null) return false;
+        for (long u : users) {
+            if (current.index(u) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The same check as {@link LinkAnalysis#checkForLinksFollowing(List)},
+     * answered from the static users' friend ids.
+     *
+     * @param requestingUser the user attempting to authenticate
+     * @return static user id mapped to true if they follow the
+     * requesting user
+     */
+    public Map<Long, Boolean> checkForLinksFollowing(long requestingUser) {
+        return checkForLinksFollowing(requestingUser, staticUsers);
+    }
+
+    /**
+     * As {@link #checkForLinksFollowing(long)}, for only some of
+     * the static users, e.g. those a decision was asked to check.
+     *
+     * @param requestingUser the user attempting to authenticate
+     * @param users          the static users to check
+     * @return each given user mapped to true if they follow the
+     * requesting user; false for any user not in the network
+     */
+    public Map<Long, Boolean> checkForLinksFollowing(long requestingUser, List<Long> users) {
+        Snapshot current = requireSnapshot();
+        Map<Long, Boolean> result = new HashMap<>();
+        for (long u : users) {
+            int i = current.index(u);
+            result.put(u, i >= 0 && current.friends[i].contains(requestingUser));
+        }
+        return result;
+    }
+
+    /**
+     * The same check as {@link LinkAnalysis#checkForLinksFriends(List)},
+     * answered from the static users' follower ids.
+     *
+     * @param requestingUser the user attempting to authenticate
+     * @return static user id mapped to true if the requesting
+     * user follows them
+     */
+    public Map<Long, Boolean> checkForLinksFriends(long requestingUser) {
+        return checkForLinksFriends(requestingUser, staticUsers);
+    }
+
+    /**
+     * As {@link #checkForLinksFriends(long)}, for only some of
+     * the static users, e.g. those a decision was asked to check.
+     *
+     * @param requestingUser the user attempting to authenticate
+     * @param users          the static users to check
+     * @return each given user mapped to true if the requesting
+     * user follows them; false for any user not in the network
+     */
+    public Map<Long, Boolean> checkForLinksFriends(long requestingUser, List<Long> users) {
+        Snapshot current = requireSnapshot();
+        Map<Long, Boolean> result = new HashMap<>();
+        for (long u : users) {
+            int i = current.index(u);
+            result.put(u, i >= 0 && current.followers[i].contains(requestingUser));
+        }
+        return result;
+    }
+
+    /**
+     * @param from a static user id
+     * @param to   a static user id
+     * @return true if {@code from} follows {@code to}
+     */
+    public boolean follows(long from, long to) {
+        Snapshot current = requireSnapshot();
+        int i = current.index(from);
+        int j = current.index(to);
+        return i >= 0 && j >= 0 && current.follows[i].get(j);
+    }
+
+    /**
+     * @param user a static user id
+     * @return the follower ids of the static user, or null if
+     * they are not a static user
+     */
+    public IdSet getFollowers(long user) {
+        Snapshot current = requireSnapshot();
+        int i = current.index(user);
+        return i < 0 ? null : current.followers[i];
+    }
+
+    /**
+     * @param user a static user id
+     * @return the friend ids of the static user, or null if
+     * they are not a static user
+     */
+    public IdSet getFriends(long user) {
+        Snapshot current = requireSnapshot();
+        int i = current.index(user);
+        return i < 0 ? null : current.friends[i];
+    }
+
+    public List<Long> getStaticUsers() {
+        return staticUsers;
+    }
+
+    /**
+     * @return when the network was last refreshed, in
+     * milliseconds since the epoch, or 0 if it never has been
+     */
+    public long getLastRefreshed() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.refreshed;
+    }
+
+    private Snapshot requireSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null)
+            throw new IllegalStateException("The static network has not been refreshed");
+        return current;
+    }
+
+    /**
+     * An immutable view of the network at one refresh.
+     */
+    private static final class Snapshot {
+        private final long[] ids;
+        private final IdSet[] followers;
+        private final IdSet[] friends;
+        private final BitSet[] follows;
+        private final long refreshed;
+        private final Map<Long, Integer> index = new HashMap<>();
+
+        private Snapshot(long[] ids, IdSet[] followers, IdSet[] friends, BitSet[] follows, long refreshed) {
+            this.ids = ids;
+            this.followers = followers;
+            this.friends = friends;
+            this.follows = follows;
+            this.refreshed = refreshed;
+            for (int i = 0; i < ids.length; i++)
+                index.put(ids[i], i);
+        }
+
+        private int index(long id) {
+            Integer i = index.get(id);
+            return i == null ? -1 : i;
+        }
+    }
+}
@@ -4,13 +4,11 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import uk.ac.ncl.jcarlton.networkanalysis.event.TopicRequestEvent;
+import uk.ac.ncl.jcarlton.networkanalysis.util.MapSorter;
 import uk.ac.ncl.jcarlton.networkanalysis.util.Utility;
 
-import javax.net.ssl.HttpsURLConnection;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -85,29 +83,100 @@ public class TopicDetection {
     private List<String> preprocessFeed(List<String> list) {
         List<String> result = new ArrayList<>();
         for (String current : list) {
-            String processed = current.replaceAll(URL_REGEX, "");
+            String processed = preprocess(current);
+            if (processed != null) result.add(processed);
+        }
+        return result;
+    }
+
+    /**
+     * Pre-process a single string in the same way as the feed,
+     * see {@link #preprocessFeed(List)}.
+     *
+     * @param text the string to be processed
+     * @return the processed string, or null if nothing but
+     * whitespace remains
+     */
+    public static String preprocess(String text) {
+        String processed = text.replaceAll(URL_REGEX, "");
+
+        processed = processed.replaceAll(USERNAME_REGEX, "");
 
-            processed = processed.replaceAll(USERNAME_REGEX, "");
+        processed = processed.replaceAll(REPEATING_CHARS, "$1");
+
+        // check if the remaining String is whitespace or empty
+        if (processed.chars().allMatch(Character::isWhitespace)) return null;
+        return processed;
+    }
+
+    /**
+     * Pick the label that has the highest probability from the
+     * classification of a single string.
+     *
+     * @param classification [{label, probability}, {label, probability}]
+     * @return the label, or an empty string if it could not
+     * be determined
+     */
+    public static String topLabel(JSONArray classification) {
+        double probability = 0.000;
+        String label = "";
+        for (Object o : classification) {
+            JSONObject inner = (JSONObject) o;
+            double currentProbability = (double) inner.get("probability");
+
+            if (currentProbability > probability) {
+                probability = currentProbability;
+                label = (String) inner.get("label");
+            }
+        }
+        return label;
+    }
 
-            processed = processed.replaceAll(REPEATING_CHARS, "$1");
+    /**
+     * Convert topic counts into the JSON array stored as the
+     * {@code topics_posted} of an activity entry, most frequent
+     * first.
+     *
+     * @param counts topic mapped to the number of times it was seen
+     * @return [{topic, frequency}, {topic, frequency}]
+     */
+    public static JSONArray countsToJSON(Map<String, Integer> counts) {
+        Map<String, Integer> sortedMap;
+        if (counts.size() <= 1)
+            sortedMap = counts;
+        else
+            sortedMap = MapSorter.intValueDescending(counts);
 
-            // check if the remaining String is whitespace or empty
-            if (utility.isWhitespace(processed) || processed.isEmpty()) continue;
-            else result.add(processed);
+        JSONArray result = new JSONArray();
+        for (Map.Entry<String, Integer> m : sortedMap.entrySet()) {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("topic", m.getKey());
+            jsonObject.put("frequency", m.getValue());
+            result.add(jsonObject);
         }
         return result;
     }
 
+    /**
+     * @return false while the classifier is failing fast, see
+     * {@link ClassifierClient}
+     */
+    public static boolean isAvailable() {
+        return ClassifierClient.shared().isAvailable();
+    }
+
     /**
      * From the feed detect the topics
      *
      * @return string -> [{label, probability}, {label, probability}]
+     * @throws ClassifierClient.UnavailableException if the classifier
+     * gave no answer, e.g. while its breaker is open
      */
-    public Map<String, JSONArray> detectTopicsAll() {
+    public Map<String, JSONArray> detectTopicsAll() throws ClassifierClient.UnavailableException {
         return requestTopics("");
     }
 
-    public JSONArray detectTopicSingular(String text) {
+    public JSONArray detectTopicSingular(String text) throws ClassifierClient.UnavailableException {
         Map<String, JSONArray> request = requestTopics(text);
         JSONArray result = null;
         for (Map.Entry<String, JSONArray> m : request.entrySet())
@@ -119,28 +188,19 @@ public class TopicDetection {
      * Internal method to detect the topics through making a request
      * to the Monkey Learn servers
      * @return string -> [{label, probability}, {label, probability}]
+     * @throws ClassifierClient.UnavailableException if the classifier
+     * gave no answer; no answer is not the same as no topics
      */
-    private Map<String, JSONArray> requestTopics(String text) {
+    private Map<String, JSONArray> requestTopics(String text) throws ClassifierClient.UnavailableException {
         if (feed.size() > 20) {
             List<String> resizedList = Utility.safeSubList(feed, 0, 20);
             setFeed(resizedList);
         }
 
         StringBuilder builder = new StringBuilder();
+        TopicRequestEvent event = new TopicRequestEvent();
+        event.begin();
         try {
-            URL url = new URL(MONKEY_LEARN_BASE_URL);
-            HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-
-            // build the request header
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Authorization", "Token " + apiKey);
-            connection.setRequestProperty("Content-type", "application/json");
-            connection.setUseCaches(false);
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-
-            // send the request
-            OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream());
             JSONObject jsonObject = new JSONObject();
             JSONArray jsonArray = new JSONArray();
             if (text.isEmpty())
@@ -148,28 +208,24 @@ public class TopicDetection {
             else
                 jsonArray.add(text);
             jsonObject.put("text_list", jsonArray);
-            writer.write(jsonObject.toJSONString());
-            writer.flush();
-            writer.close();
-
-            // read input stream
-            int code = connection.getResponseCode();
-            BufferedReader input;
-
-            // within common error codes
-            if (code >= 400 && code <= 500)
-                input = new BufferedReader(new InputStreamReader(connection.getErrorStream()));
-            else
-                input = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-
-            String inputLine;
-            while ((inputLine = input.readLine()) != null)
-                builder.append(inputLine);
-            input.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            event.textCount = jsonArray.size();
+
+            ClassifierClient.Response response = ClassifierClient.shared()
+                    .post(new URL(MONKEY_LEARN_BASE_URL), apiKey, jsonObject.toJSONString());
+            event.responseCode = response.getCode();
+            builder.append(response.getBody());
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.responseChars = builder.length();
+                event.commit();
+            }
         }
 
+        if (builder.length() == 0)
+            return new HashMap<>();
         if (text.isEmpty())
             return processResponse(builder.toString());
         else
@@ -0,0 +1,206 @@
+package uk.ac.ncl.jcarlton.networkanalysis.analysis;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Topic frequencies held as dense {@code float[]} vectors, so
+ * activity snapshots can be compared with flat array loops
+ * rather than through maps of boxed counts.
+ * <p>
+ * Topic labels are interned to dense integer ids, shared by
+ * the whole process, and a topic's frequency is stored at its
+ * id. Vectors built at different times may differ in length as
+ * new topics are seen; the missing tail of the shorter one is
+ * treated as zero.
+ */
+public final class TopicVectors {
+
+    /**
+     * History windows at least this long are scored in parallel.
+     */
+    static final int PARALLEL_WINDOW = 16;
+
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private static final double LN_2 = Math.log(2);
+
+    /**
+     * How two vectors are compared; both give 1 for snapshots
+     * with the same topic mix and 0 for snapshots that share
+     * no topics.
+     */
+    public enum Measure {
+        COSINE {
+            @Override
+            public float similarity(float[] a, float[] b) {
+                return cosine(a, b);
+            }
+        },
+        JENSEN_SHANNON {
+            @Override
+            public float similarity(float[] a, float[] b) {
+                return jensenShannon(a, b);
+            }
+        };
+
+        public abstract float similarity(float[] a, float[] b);
+
+        /**
+         * @param name e.g. {@code cosine} or {@code jensen-shannon}
+         * @return the measure
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Measure of(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private TopicVectors() {
+    }
+
+    /**
+     * @param topic the topic label
+     * @return the dense id of the topic, assigning the next one
+     * if it has not been seen before
+     */
+    public static int intern(String topic) {
+        return IDS.computeIfAbsent(topic, t -> NEXT_ID.getAndIncrement());
+    }
+
+    /**
+     * @return the number of topics interned so far
+     */
+    public static int size() {
+        return NEXT_ID.get();
+    }
+
+    /**
+     * Build the vector of a {@code topics_posted} array, as written
+     * by {@link TopicDetection#countsToJSON(Map)}.
+     *
+     * @param topics array of {@code {topic, frequency}} objects
+     * @return the frequencies by topic id, empty if nothing was posted
+     */
+    public static float[] vector(JSONArray topics) {
+        if (topics == null || topics.isEmpty())
+            return new float[0];
+
+        int[] ids = new int[topics.size()];
+        float[] frequencies = new float[ids.length];
+        int length = 0;
+        for (int i = 0; i < ids.length; i++) {
+            JSONObject t = (JSONObject) topics.get(i);
+            ids[i] = intern((String) t.get("topic"));
+            frequencies[i] = ((Number) t.get("frequency")).floatValue();
+            length = Math.max(length, ids[i] + 1);
+        }
+
+        float[] vector = new float[length];
+        for (int i = 0; i < ids.length; i++)
+            vector[ids[i]] += frequencies[i];
+        return vector;
+    }
+
+    /**
+     * The profile of a history of snapshots: the mean of their
+     * distributions, so every snapshot counts the same however
+     * much was posted in it.
+     *
+     * @param history the snapshot vectors
+     * @return the profile, empty if the history is empty
+     */
+    public static float[] profile(List<float[]> history) {
+        int length = 0;
+        for (float[] v : history)
+            length = Math.max(length, v.length);
+
+        float[] profile = new float[length];
+        for (float[] v : history) {
+            float sum = sum(v);
+            if (sum == 0) continue;
+            float scale = 1f / (sum * history.size());
+            for (int i = 0; i < v.length; i++)
+                profile[i] += v[i] * scale;
+        }
+        return profile;
+    }
+
+    /**
+     * Compare a snapshot with every snapshot in a history window,
+     * in parallel once the window is {@value #PARALLEL_WINDOW} or
+     * more long.
+     *
+     * @param measure how to compare them
+     * @param current the snapshot to compare
+     * @param history the window to compare it against
+     * @return the similarity to each snapshot, in history order
+     */
+    public static float[] similarities(Measure measure, float[] current, List<float[]> history) {
+        float[] result = new float[history.size()];
+        IntStream range = IntStream.range(0, result.length);
+        if (result.length >= PARALLEL_WINDOW)
+            range = range.parallel();
+        range.forEach(i -> result[i] = measure.similarity(current, history.get(i)));
+        return result;
+    }
+
+    /**
+     * @return the cosine of the angle between the vectors, 0 if
+     * either is all zero
+     */
+    public static float cosine(float[] a, float[] b) {
+        int shared = Math.min(a.length, b.length);
+        double dot = 0;
+        for (int i = 0; i < shared; i++)
+            dot += a[i] * b[i];
+        if (dot == 0)
+            return 0;
+
+        double normA = 0;
+        for (float x : a)
+            normA += x * x;
+        double normB = 0;
+        for (float x : b)
+            normB += x * x;
+        return (float) (dot / Math.sqrt(normA * normB));
+    }
+
+    /**
+     * One minus the Jensen-Shannon divergence (base 2) between the
+     * vectors, each taken as a distribution; 0 if either is all zero.
+     */
+    public static float jensenShannon(float[] a, float[] b) {
+        float sumA = sum(a);
+        float sumB = sum(b);
+        if (sumA == 0 || sumB == 0)
+            return 0;
+
+        int length = Math.max(a.length, b.length);
+        double divergence = 0;
+        for (int i = 0; i < length; i++) {
+            double p = i < a.length ? a[i] / sumA : 0;
+            double q = i < b.length ? b[i] / sumB : 0;
+            double m = (p + q) / 2;
+            if (p > 0) divergence += p * Math.log(p / m);
+            if (q > 0) divergence += q * Math.log(q / m);
+        }
+        // each half is weighted by 1/2; ln to log2 keeps the result within [0, 1]
+        double jsd = divergence / (2 * LN_2);
+        return (float) Math.max(0, 1 - jsd);
+    }
+
+    private static float sum(float[] v) {
+        float sum = 0;
+        for (float x : v)
+            sum += x;
+        return sum;
+    }
+}
@@ -0,0 +1,132 @@
+package uk.ac.ncl.jcarlton.networkanalysis.analysis;
+
+import twitter4j.Status;
+import uk.ac.ncl.jcarlton.networkanalysis.stream.TweetEvent;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The parts of a feed of tweets that the analysis uses, the
+ * id, creation time, author and text, held column by column
+ * in parallel arrays.
+ * <p>
+ * Pages of {@link Status} objects are projected into the
+ * columns as they arrive and then dropped, so a feed of
+ * thousands of tweets costs four arrays rather than thousands
+ * of statuses with their users, entities and media.
+ */
+public final class TweetRecords {
+
+    private long[] ids;
+    private long[] createdAt;
+    private long[] authorIds;
+    private String[] texts;
+    private int size = 0;
+
+    public TweetRecords() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the number of tweets expected
+     */
+    public TweetRecords(int capacity) {
+        capacity = Math.max(1, capacity);
+        this.ids = new long[capacity];
+        this.createdAt = new long[capacity];
+        this.authorIds = new long[capacity];
+        this.texts = new String[capacity];
+    }
+
+    /**
+     * Project a status into the columns.
+     *
+     * @param status the status, which is not kept
+     */
+    public void add(Status status) {
+        add(status.getId(), status.getCreatedAt().getTime(), status.getUser().getId(), status.getText());
+    }
+
+    /**
+     * @param id        the id of the tweet
+     * @param createdAt when the tweet was posted, in milliseconds
+     *                  since the epoch
+     * @param authorId  the id of the user who posted it
+     * @param text      the text of the tweet
+     */
+    public void add(long id, long createdAt, long authorId, String text) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            this.createdAt = Arrays.copyOf(this.createdAt, capacity);
+            authorIds = Arrays.copyOf(authorIds, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+        ids[size] = id;
+        this.createdAt[size] = createdAt;
+        authorIds[size] = authorId;
+        texts[size] = text;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getId(int i) {
+        checkIndex(i);
+        return ids[i];
+    }
+
+    public long getCreatedAt(int i) {
+        checkIndex(i);
+        return createdAt[i];
+    }
+
+    public long getAuthorId(int i) {
+        checkIndex(i);
+        return authorIds[i];
+    }
+
+    public String getText(int i) {
+        checkIndex(i);
+        return texts[i];
+    }
+
+    /**
+     * @return a read-only view of the text column
+     */
+    public List<String> getTexts() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getText(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @param i the index of a tweet
+     * @return the tweet as a stream event
+     */
+    public TweetEvent toEvent(int i) {
+        checkIndex(i);
+        return new TweetEvent(authorIds[i], ids[i], texts[i], createdAt[i]);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+    }
+}
@@ -0,0 +1,450 @@
+package uk.ac.ncl.jcarlton.networkanalysis.cli;
+
+import org.json.simple.JSONObject;
+import twitter4j.Twitter;
+import uk.ac.ncl.jcarlton.networkanalysis.Decision;
+import uk.ac.ncl.jcarlton.networkanalysis.policy.DecisionPolicy;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SocialNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SyntheticNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.shard.ShardClient;
+import uk.ac.ncl.jcarlton.networkanalysis.shard.ShardServer;
+import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterSetup;
+import uk.ac.ncl.jcarlton.networkanalysis.util.Config;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static uk.ac.ncl.jcarlton.networkanalysis.policy.DefaultDecisionPolicy.FOLLOW_COST;
+import static uk.ac.ncl.jcarlton.networkanalysis.policy.DefaultDecisionPolicy.FRIEND_COST;
+import static uk.ac.ncl.jcarlton.networkanalysis.policy.Expression.or;
+import static uk.ac.ncl.jcarlton.networkanalysis.policy.Expression.rule;
+
+/**
+ * Command line entry point that runs a {@link Decision} for
+ * every requesting user in a file (or stdin) and writes the
+ * decisions out as JSON Lines.
+ * <p>
+ * Requesting users are read one id per line as they are
+ * needed, so the input can be of any size. Up to
+ * {@code --parallelism} decisions run at once; once the API
+ * budget is spent no further decisions are started (those
+ * already running may take it a little over) and the
+ * remaining users are counted as skipped. A summary of the
+ * throughput, latency percentiles and API calls is printed
+ * to stderr at the end.
+ * <p>
+ * Usage:
+ * <pre>
+ * BatchRunner --static-users FILE [--requesters FILE|-] [--output FILE|-]
+ *             [--parallelism N] [--api-budget N]
+ *             [--backend twitter|fake|shard] [--seed N] [--fake-latency-ms N]
+ *             [--fake-users N] [--nodes HOST:PORT,...]
+ * </pre>
+ * The fake backend runs the decisions against a
+ * {@link SyntheticNetworkProvider} of {@code --fake-users} users
+ * generated from the seed, each call taking {@code --fake-latency-ms},
+ * for measuring the analysis at scale without any network access.
+ * As nothing can be classified offline it checks the links only,
+ * see {@link #LINK_POLICY}. The shard
+ * backend sends the decisions to the nodes of a sharded service
+ * started with {@link ShardNodeRunner}, checking that they hold
+ * the {@code shard.secret} if one is configured.
+ */
+public class BatchRunner {
+
+    private static final int SHARD_TIMEOUT_MILLIS = 60000;
+    static final int DEFAULT_FAKE_USERS = 1_000_000;
+
+    /**
+     * Authenticate a user who follows, or is followed by, the
+     * static users, without the activity check.
+     */
+    static final DecisionPolicy LINK_POLICY = () -> or(
+            rule(DecisionPolicy.FOLLOW, FOLLOW_COST), rule(DecisionPolicy.FRIEND, FRIEND_COST));
+
+    /**
+     * Makes the decision for one requesting user.
+     */
+    public interface Decider {
+        /**
+         * @param requester   the user attempting to authenticate
+         * @param staticUsers the static users
+         * @return the decision and the API calls it took
+         * @throws Exception if no decision could be made
+         */
+        Result decide(long requester, List<Long> staticUsers) throws Exception;
+    }
+
+    /**
+     * The outcome of one decision.
+     */
+    public static final class Result {
+        private final boolean decision;
+        private final int apiCalls;
+        private final Exception failure;
+
+        public Result(boolean decision, int apiCalls) {
+            this(decision, apiCalls, null);
+        }
+
+        /**
+         * @param failure why the decision is incomplete, see
+         *                {@link Decision#isIncomplete()}, or null
+         */
+        public Result(boolean decision, int apiCalls, Exception failure) {
+            this.decision = decision;
+            this.apiCalls = apiCalls;
+            this.failure = failure;
+        }
+
+        public boolean getDecision() {
+            return decision;
+        }
+
+        public int getApiCalls() {
+            return apiCalls;
+        }
+
+        public Exception getFailure() {
+            return failure;
+        }
+    }
+
+    private final Decider decider;
+    private final List<Long> staticUsers;
+    private final int parallelism;
+    private final long apiBudget;
+
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong approved = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private long[] latencies = new long[1024];
+    private int completed = 0;
+    private long elapsedNanos = 0;
+
+    /**
+     * Object constructor.
+     *
+     * @param decider     makes each decision
+     * @param staticUsers the static users
+     * @param parallelism the most decisions to run at once
+     * @param apiBudget   the most API calls to spend, or a negative
+     *                    number for no limit
+     */
+    public BatchRunner(Decider decider, List<Long> staticUsers, int parallelism, long apiBudget) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        this.decider = decider;
+        this.staticUsers = staticUsers;
+        this.parallelism = parallelism;
+        this.apiBudget = apiBudget;
+    }
+
+    /**
+     * A decider that runs a {@link Decision} against Twitter,
+     * sharing one authenticated instance.
+     *
+     * @param twitterInstance pre-authenticated instance of the Twitter4j
+     *                        Twitter API.
+     * @return the decider
+     */
+    public static Decider twitterDecider(Twitter twitterInstance) {
+        return (requester, staticUsers) -> {
+            Decision decision = new Decision.Builder(requester, staticUsers)
+                    .twitter(twitterInstance)
+                    .build();
+            boolean result = decision.decide();
+            return new Result(result, decision.getApiCalls(), decision.getFailure());
+        };
+    }
+
+    /**
+     * A decider that runs a {@link Decision} of the link checks
+     * alone against any provider, e.g. a synthetic network. The
+     * same network and requester always give the same decision
+     * and API call count.
+     *
+     * @param provider the social network
+     * @return the decider
+     */
+    public static Decider linkDecider(SocialNetworkProvider provider) {
+        return (requester, staticUsers) -> {
+            Decision decision = new Decision.Builder(requester, staticUsers)
+                    .provider(provider)
+                    .policy(LINK_POLICY)
+                    .build();
+            boolean result = decision.decide();
+            return new Result(result, decision.getApiCalls(), decision.getFailure());
+        };
+    }
+
+    /**
+     * @param users         the number of users
+     * @param seed          generates the network
+     * @param latencyMillis how long each call takes
+     * @return the network behind the fake backend
+     */
+    static SyntheticNetworkProvider fakeNetwork(int users, long seed, long latencyMillis) {
+        SyntheticNetworkProvider network = new SyntheticNetworkProvider.Builder(users)
+                .seed(seed)
+                .latencyMillis(latencyMillis)
+                .build();
+        System.err.println(String.format("generated %d users, %d follows in %dms",
+                network.getUsers(), network.getEdges(), network.getGenerationMillis()));
+        return network;
+    }
+
+    /**
+     * A decider that sends each decision to the node of a
+     * sharded service that owns the requester, see
+     * {@link ShardServer}. The static users are those the nodes
+     * were started with.
+     *
+     * @param client connected to one or more of the nodes
+     * @return the decider
+     */
+    public static Decider shardDecider(ShardClient client) {
+        return (requester, staticUsers) -> client.decide(requester);
+    }
+
+    /**
+     * Run a decision for every requesting user, blocking until
+     * the last has been written.
+     *
+     * @param requesters one user id per line; blank lines and lines
+     *                   starting with # are ignored
+     * @param output     where the JSON Lines are written
+     * @throws IOException if the input could not be read
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void run(BufferedReader requesters, Writer output) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        // bounds the decisions waiting to run, so the input is read as it is needed
+        Semaphore permits = new Semaphore(parallelism * 2);
+        long start = System.nanoTime();
+
+        try {
+            String line;
+            while ((line = requesters.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                long requester;
+                try {
+                    requester = Long.parseLong(line);
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping invalid user id: " + line);
+                    continue;
+                }
+
+                permits.acquire();
+                if (budgetSpent()) {
+                    permits.release();
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                pool.execute(() -> {
+                    try {
+                        runOne(requester, output);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            elapsedNanos = System.nanoTime() - start;
+            output.flush();
+        }
+    }
+
+    private boolean budgetSpent() {
+        return apiBudget >= 0 && apiCalls.get() >= apiBudget;
+    }
+
+    private void runOne(long requester, Writer output) {
+        JSONObject line = new JSONObject();
+        line.put("requester", requester);
+
+        long start = System.nanoTime();
+        try {
+            Result result = decider.decide(requester, staticUsers);
+            apiCalls.addAndGet(result.getApiCalls());
+            line.put("api_calls", result.getApiCalls());
+            if (result.getFailure() != null) {
+                // an API call failed, so a denial may just be missing data
+                failed.incrementAndGet();
+                line.put("error", String.valueOf(result.getFailure()));
+            } else {
+                if (result.getDecision()) approved.incrementAndGet();
+                line.put("decision", result.getDecision());
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            line.put("error", String.valueOf(e));
+        }
+        long latency = System.nanoTime() - start;
+        line.put("latency_ms", TimeUnit.NANOSECONDS.toMillis(latency));
+
+        synchronized (this) {
+            if (completed == latencies.length)
+                latencies = Arrays.copyOf(latencies, completed * 2);
+            latencies[completed++] = latency;
+            try {
+                output.write(line.toJSONString());
+                output.write('\n');
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return a summary of the run so far
+     */
+    public synchronized String summary() {
+        long[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("decisions:  %d (%d approved, %d failed, %d skipped)%n",
+                completed, approved.get(), failed.get(), skipped.get()));
+        sb.append(String.format("throughput: %.1f decisions/s over %.1fs%n",
+                seconds == 0 ? 0 : completed / seconds, seconds));
+        sb.append(String.format("latency:    p50=%dms p90=%dms p99=%dms max=%dms%n",
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 100)));
+        sb.append(String.format("api calls:  %d%s%n", apiCalls.get(),
+                apiBudget >= 0 ? " (budget " + apiBudget + ")" : ""));
+        return sb.toString();
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(rank, 1) - 1]);
+    }
+
+    /**
+     * Getter methods for the run metrics
+     */
+
+    public long getApiCalls() {
+        return apiCalls.get();
+    }
+
+    public synchronized int getCompleted() {
+        return completed;
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String requestersPath = "-";
+        String outputPath = "-";
+        String staticUsersPath = null;
+        String backend = "twitter";
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long apiBudget = -1;
+        long seed = 42;
+        long fakeLatency = 0;
+        int fakeUsers = DEFAULT_FAKE_USERS;
+        List<String> nodes = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    usage(null);
+                    return;
+                }
+                if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for " + arg);
+                String value = args[++i];
+                switch (arg) {
+                    case "--requesters": requestersPath = value; break;
+                    case "--output": outputPath = value; break;
+                    case "--static-users": staticUsersPath = value; break;
+                    case "--backend": backend = value; break;
+                    case "--parallelism": parallelism = Integer.parseInt(value); break;
+                    case "--api-budget": apiBudget = Long.parseLong(value); break;
+                    case "--seed": seed = Long.parseLong(value); break;
+                    case "--fake-latency-ms": fakeLatency = Long.parseLong(value); break;
+                    case "--fake-users": fakeUsers = Integer.parseInt(value); break;
+                    case "--nodes": nodes.addAll(Arrays.asList(value.split(","))); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (staticUsersPath == null) throw new IllegalArgumentException("--static-users is required");
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+            System.exit(2);
+        }
+
+        Decider decider;
+        switch (backend) {
+            case "twitter": decider = twitterDecider(new TwitterSetup().getInstance()); break;
+            case "fake": decider = linkDecider(fakeNetwork(fakeUsers, seed, fakeLatency)); break;
+            case "shard":
+                if (nodes.isEmpty()) {
+                    usage("--nodes is required for the shard backend");
+                    System.exit(2);
+                }
+                ShardClient client = new ShardClient(nodes, SHARD_TIMEOUT_MILLIS,
+                        Config.current().getProperty(ShardNodeRunner.SECRET_PROPERTY, null));
+                client.refresh();
+                decider = shardDecider(client);
+                break;
+            default:
+                usage("Unknown backend " + backend);
+                System.exit(2);
+                return;
+        }
+
+        BatchRunner runner = new BatchRunner(decider, readIds(staticUsersPath), parallelism, apiBudget);
+        try (BufferedReader in = reader(requestersPath); Writer out = writer(outputPath)) {
+            runner.run(in, out);
+        }
+        System.err.print(runner.summary());
+    }
+
+    static List<Long> readIds(String path) throws IOException {
+        List<Long> result = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                result.add(Long.parseLong(line));
+        }
+        return result;
+    }
+
+    private static BufferedReader reader(String path) throws IOException {
+        if (path.equals("-"))
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        return Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    private static Writer writer(String path) throws IOException {
+        if (path.equals("-"))
+            return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        return Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    private static void usage(String error) {
+        if (error != null) System.err.println(error);
+        System.err.println("Usage: BatchRunner --static-users FILE [--requesters FILE|-] [--output FILE|-]\n" +
+                "                   [--parallelism N] [--api-budget N]\n" +
+                "                   [--backend twitter|fake|shard] [--seed N] [--fake-latency-ms N]\n" +
+                "                   [--fake-users N] [--nodes HOST:PORT,...]");
+    }
+}
@@ -0,0 +1,180 @@
+package uk.ac.ncl.jcarlton.networkanalysis.cli;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import uk.ac.ncl.jcarlton.networkanalysis.util.ActivityLog;
+import uk.ac.ncl.jcarlton.networkanalysis.util.Config;
+import uk.ac.ncl.jcarlton.networkanalysis.util.Utility;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-shot migration of the plain JSON activity histories under
+ * {@code <resource path>/json} into compressed
+ * {@link ActivityLog}s.
+ * <p>
+ * Each history is packed into blocks, read back and compared
+ * with the original before it counts as migrated; the original
+ * is only deleted when {@code --delete} is given. Once a
+ * compressed history exists it is used for all reads and
+ * writes of that user. For each file, and in total, the
+ * compression ratio and the read throughput of both formats
+ * are reported.
+ * <p>
+ * Usage:
+ * <pre>
+ * MigrateActivityLogs [--dir DIRECTORY] [--block-entries N] [--delete]
+ * </pre>
+ */
+public class MigrateActivityLogs {
+
+    /**
+     * Files in the json directory that are not activity histories.
+     */
+    private static final String HIGH_WATER_MARKS = "high_water_marks.json";
+
+    /**
+     * Reads of each file timed for the throughput figures.
+     */
+    private static final int TIMED_READS = 5;
+
+    private long plainBytes = 0;
+    private long compressedBytes = 0;
+    private long plainReadNanos = 0;
+    private long compressedReadNanos = 0;
+    private int migrated = 0;
+    private int failed = 0;
+
+    /**
+     * Migrate one history.
+     *
+     * @param file          the plain JSON history
+     * @param blockEntries  the most entries in one block
+     * @param deleteOriginal remove the plain file once verified
+     * @return true if it was migrated
+     */
+    public boolean migrate(File file, int blockEntries, boolean deleteOriginal) {
+        String name = file.getName().substring(0, file.getName().length() - ".json".length());
+        ActivityLog log = new ActivityLog(new File(file.getParentFile(), name + Utility.ACTIVITY_LOG_EXTENSION));
+        try {
+            JSONObject original = parse(file);
+            log.writeAll(original, blockEntries);
+            if (!log.readAll().equals(original)) {
+                log.getFile().delete();
+                throw new IOException("Round trip changed the history");
+            }
+
+            long plainNanos = time(() -> parse(file));
+            long compressedNanos = time(log::readAll);
+
+            long before = file.length();
+            long after = log.getFile().length();
+            System.out.println(String.format("%-24s %9d -> %8d bytes  ratio %5.1fx  read %6.1f -> %6.1f MB/s",
+                    name, before, after, ratio(before, after),
+                    throughput(before, plainNanos), throughput(before, compressedNanos)));
+
+            plainBytes += before;
+            compressedBytes += after;
+            plainReadNanos += plainNanos;
+            compressedReadNanos += compressedNanos;
+            migrated++;
+
+            if (deleteOriginal && !file.delete())
+                System.err.println("Could not delete " + file);
+            return true;
+        } catch (IOException | ParseException e) {
+            System.err.println("Failed to migrate " + file + ": " + e);
+            failed++;
+            return false;
+        }
+    }
+
+    /**
+     * @return a summary of every file migrated so far
+     */
+    public String summary() {
+        return String.format("migrated %d (%d failed): %d -> %d bytes, ratio %.1fx, read %.1f -> %.1f MB/s (%+.0f%%)",
+                migrated, failed, plainBytes, compressedBytes, ratio(plainBytes, compressedBytes),
+                throughput(plainBytes, plainReadNanos), throughput(plainBytes, compressedReadNanos),
+                compressedReadNanos == 0 ? 0 : ((double) plainReadNanos / compressedReadNanos - 1) * 100);
+    }
+
+    private interface Read {
+        Object read() throws IOException, ParseException;
+    }
+
+    /**
+     * @return the mean time of a read, in nanoseconds
+     */
+    private static long time(Read read) throws IOException, ParseException {
+        read.read(); // warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_READS; i++)
+            read.read();
+        return (System.nanoTime() - start) / TIMED_READS;
+    }
+
+    private static JSONObject parse(File file) throws IOException, ParseException {
+        try (Reader reader = new FileReader(file)) {
+            return (JSONObject) new JSONParser().parse(reader);
+        }
+    }
+
+    private static double ratio(long before, long after) {
+        return after == 0 ? 0 : (double) before / after;
+    }
+
+    /**
+     * @return the logical (uncompressed JSON) bytes read per second, in MB
+     */
+    private static double throughput(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / 1e6 / (nanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public static void main(String[] args) {
+        String directory = null;
+        int blockEntries = ActivityLog.DEFAULT_BLOCK_ENTRIES;
+        boolean delete = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dir": directory = args[++i]; break;
+                case "--block-entries": blockEntries = Integer.parseInt(args[++i]); break;
+                case "--delete": delete = true; break;
+                default:
+                    System.err.println("Usage: MigrateActivityLogs [--dir DIRECTORY] [--block-entries N] [--delete]");
+                    System.exit(2);
+            }
+        }
+        if (directory == null) {
+            String resourcePath = Config.current().getResourcePath();
+            if (resourcePath == null) {
+                System.err.println("No resource path configured, give --dir");
+                System.exit(2);
+            }
+            directory = resourcePath + "/json";
+        }
+
+        File[] files = new File(directory).listFiles((dir, name) ->
+                name.endsWith(".json") && !name.equals(HIGH_WATER_MARKS));
+        if (files == null) {
+            System.err.println("Not a directory: " + directory);
+            System.exit(2);
+        }
+
+        MigrateActivityLogs migration = new MigrateActivityLogs();
+        for (File file : files) {
+            if (new File(directory, file.getName().replaceAll("\\.json$", Utility.ACTIVITY_LOG_EXTENSION)).exists()) {
+                System.out.println("Already migrated, skipping " + file.getName());
+                continue;
+            }
+            migration.migrate(file, blockEntries, delete);
+        }
+        System.out.println(migration.summary());
+    }
+}
@@ -0,0 +1,165 @@
+package uk.ac.ncl.jcarlton.networkanalysis.cli;
+
+import uk.ac.ncl.jcarlton.networkanalysis.Decision;
+import uk.ac.ncl.jcarlton.networkanalysis.DecisionCache;
+import uk.ac.ncl.jcarlton.networkanalysis.policy.DecisionPolicy;
+import uk.ac.ncl.jcarlton.networkanalysis.policy.DefaultDecisionPolicy;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SocialNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.shard.ShardServer;
+import uk.ac.ncl.jcarlton.networkanalysis.stream.ActivityProfileStore;
+import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterSetup;
+import uk.ac.ncl.jcarlton.networkanalysis.util.Config;
+import uk.ac.ncl.jcarlton.networkanalysis.util.OffHeapIdSetStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry point that runs one node of the sharded
+ * decision service, see {@link ShardServer}.
+ * <p>
+ * Several nodes can run on one machine by giving each its own
+ * port, e.g.
+ * <pre>
+ * ShardNodeRunner --self localhost:7001 --static-users users.txt --backend fake
+ * ShardNodeRunner --self localhost:7002 --nodes localhost:7001 --static-users users.txt --backend fake
+ * ShardNodeRunner --self localhost:7003 --nodes localhost:7001 --static-users users.txt --backend fake
+ * </pre>
+ * and decisions sent to any of them with
+ * {@code BatchRunner --backend shard --nodes localhost:7001}.
+ * The node leaves the ring when it is stopped.
+ * <p>
+ * Usage:
+ * <pre>
+ * ShardNodeRunner --self HOST:PORT --static-users FILE [--nodes HOST:PORT,...]
+ *                 [--backend twitter|fake] [--seed N] [--fake-latency-ms N]
+ *                 [--fake-users N] [--id-set-capacity-mb N]
+ * </pre>
+ * The fake backend decides against a synthetic network as in
+ * {@link BatchRunner}; every node must be given the same seed.
+ * <p>
+ * The node listens on the address given by {@code --self} only.
+ * Nodes accept each other only if they share the secret set as
+ * {@code shard.secret} in the configuration, which is kept there
+ * rather than on the command line where other users could see it.
+ */
+public class ShardNodeRunner {
+
+    private static final long POSITIVE_TTL_MINUTES = 60;
+    private static final long NEGATIVE_TTL_MINUTES = 5;
+
+    /**
+     * The configuration property holding the secret shared by the nodes.
+     */
+    static final String SECRET_PROPERTY = "shard.secret";
+
+    public static void main(String[] args) throws Exception {
+        String self = null;
+        String staticUsersPath = null;
+        List<String> nodes = new ArrayList<>();
+        String backend = "twitter";
+        long seed = 42;
+        long fakeLatency = 0;
+        int fakeUsers = BatchRunner.DEFAULT_FAKE_USERS;
+        long idSetCapacityMb = 256;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    usage(null);
+                    return;
+                }
+                if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for " + arg);
+                String value = args[++i];
+                switch (arg) {
+                    case "--self": self = value; break;
+                    case "--nodes": nodes.addAll(Arrays.asList(value.split(","))); break;
+                    case "--static-users": staticUsersPath = value; break;
+                    case "--backend": backend = value; break;
+                    case "--seed": seed = Long.parseLong(value); break;
+                    case "--fake-latency-ms": fakeLatency = Long.parseLong(value); break;
+                    case "--fake-users": fakeUsers = Integer.parseInt(value); break;
+                    case "--id-set-capacity-mb": idSetCapacityMb = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (self == null) throw new IllegalArgumentException("--self is required");
+            if (staticUsersPath == null) throw new IllegalArgumentException("--static-users is required");
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+            System.exit(2);
+        }
+
+        String secret = Config.current().getProperty(SECRET_PROPERTY, null);
+        if (secret == null || secret.isEmpty()) {
+            if (!nodes.isEmpty()) {
+                usage(SECRET_PROPERTY + " must be configured to join other nodes");
+                System.exit(2);
+            }
+            System.err.println("No " + SECRET_PROPERTY + " configured, no other node can join this one");
+        }
+
+        DecisionCache cache = new DecisionCache(POSITIVE_TTL_MINUTES, NEGATIVE_TTL_MINUTES, TimeUnit.MINUTES);
+        OffHeapIdSetStore idSetStore = new OffHeapIdSetStore(idSetCapacityMb * 1024 * 1024);
+        ActivityProfileStore profileStore = new ActivityProfileStore();
+
+        SocialNetworkProvider provider;
+        DecisionPolicy policy;
+        switch (backend) {
+            case "twitter":
+                provider = new TwitterNetworkProvider(new TwitterSetup().getInstance());
+                policy = new DefaultDecisionPolicy();
+                break;
+            case "fake":
+                provider = BatchRunner.fakeNetwork(fakeUsers, seed, fakeLatency);
+                policy = BatchRunner.LINK_POLICY;
+                break;
+            default:
+                usage("Unknown backend " + backend);
+                System.exit(2);
+                return;
+        }
+
+        BatchRunner.Decider decider = (requester, staticUsers) -> {
+            Decision decision = new Decision.Builder(requester, staticUsers)
+                    .provider(provider)
+                    .policy(policy)
+                    .cache(cache)
+                    .idSetStore(idSetStore)
+                    .profileStore(profileStore)
+                    .build();
+            boolean result = decision.decide();
+            return new BatchRunner.Result(result, decision.getApiCalls());
+        };
+
+        ShardServer server = new ShardServer.Builder(self, decider, BatchRunner.readIds(staticUsersPath))
+                .cache(cache)
+                .idSetStore(idSetStore)
+                .profileStore(profileStore)
+                .secret(secret)
+                .build();
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            idSetStore.close();
+            stopped.countDown();
+        }));
+
+        server.start(nodes);
+        System.err.println(self + " serving " + server.getRing());
+        stopped.await();
+    }
+
+    private static void usage(String error) {
+        if (error != null) System.err.println(error);
+        System.err.println("Usage: ShardNodeRunner --self HOST:PORT --static-users FILE [--nodes HOST:PORT,...]\n" +
+                "                       [--backend twitter|fake] [--seed N] [--fake-latency-ms N]\n" +
+                "                       [--fake-users N] [--id-set-capacity-mb N]");
+    }
+}
@@ -0,0 +1,43 @@
+package uk.ac.ncl.jcarlton.networkanalysis.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event covering a single call to
+ * {@link uk.ac.ncl.jcarlton.networkanalysis.Decision#decide()}.
+ * <p>
+ * The duration of the event is the full time taken to
+ * reach a decision, so nested paging, topic and JSON
+ * events can be correlated against it.
+ */
+@Name("uk.ac.ncl.jcarlton.networkanalysis.Decision")
+@Label("Decision")
+@Category({"Network Analysis", "Decision"})
+@Description("An authentication decision for a requesting user")
+public class DecisionEvent extends jdk.jfr.Event {
+
+    @Label("Requesting User")
+    public long requestingUser;
+
+    @Label("Static Users")
+    @Description("Number of static users the requester was checked against")
+    public int staticUserCount;
+
+    @Label("Decision")
+    public boolean decision;
+
+    @Label("Cached")
+    @Description("The decision was taken from the decision cache")
+    public boolean cached;
+
+    @Label("Degraded")
+    @Description("The activity check was skipped as the topic classifier was unavailable")
+    public boolean degraded;
+
+    @Label("Activity Similarity")
+    @Description("How closely the newest activity matched the history, NaN if it was not scored")
+    public float activitySimilarity;
+}
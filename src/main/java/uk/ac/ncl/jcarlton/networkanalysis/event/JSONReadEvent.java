@@ -0,0 +1,23 @@
+package uk.ac.ncl.jcarlton.networkanalysis.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event covering a read of a stored
+ * activity JSON file.
+ */
+@Name("uk.ac.ncl.jcarlton.networkanalysis.JSONRead")
+@Label("JSON Read")
+@Category({"Network Analysis", "Storage"})
+public class JSONReadEvent extends jdk.jfr.Event {
+
+    @Label("File Name")
+    public String fileName;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytesRead;
+}
@@ -0,0 +1,27 @@
+package uk.ac.ncl.jcarlton.networkanalysis.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event covering a write of an activity
+ * JSON file.
+ * <p>
+ * Writing appends to the stored history, so the size
+ * recorded is that of the whole file after the write,
+ * every previous activity entry included.
+ */
+@Name("uk.ac.ncl.jcarlton.networkanalysis.JSONWrite")
+@Label("JSON Write")
+@Category({"Network Analysis", "Storage"})
+public class JSONWriteEvent extends jdk.jfr.Event {
+
+    @Label("File Name")
+    public String fileName;
+
+    @Label("File Size")
+    @DataAmount
+    public long fileBytes;
+}
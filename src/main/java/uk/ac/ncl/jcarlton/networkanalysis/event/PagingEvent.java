@@ -0,0 +1,33 @@
+package uk.ac.ncl.jcarlton.networkanalysis.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event covering one paged fetch from
+ * the Twitter API, e.g. a user timeline or a follower
+ * id list.
+ */
+@Name("uk.ac.ncl.jcarlton.networkanalysis.Paging")
+@Label("Paging")
+@Category({"Network Analysis", "Twitter"})
+@Description("A paged fetch from the Twitter API")
+public class PagingEvent extends jdk.jfr.Event {
+
+    @Label("User")
+    public long userId;
+
+    @Label("Endpoint")
+    @Description("timeline, favourites, followers or friends")
+    public String endpoint;
+
+    @Label("Pages")
+    @Description("Number of pages requested from the API")
+    public int pages;
+
+    @Label("Items")
+    @Description("Number of statuses or ids kept from the pages")
+    public int items;
+}
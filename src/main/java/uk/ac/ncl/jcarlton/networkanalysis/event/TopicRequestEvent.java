@@ -0,0 +1,28 @@
+package uk.ac.ncl.jcarlton.networkanalysis.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event covering a single classification
+ * request to the Monkey Learn servers.
+ */
+@Name("uk.ac.ncl.jcarlton.networkanalysis.TopicRequest")
+@Label("Topic Request")
+@Category({"Network Analysis", "Topic Detection"})
+@Description("A classification request to Monkey Learn")
+public class TopicRequestEvent extends jdk.jfr.Event {
+
+    @Label("Texts")
+    @Description("Number of texts sent for classification")
+    public int textCount;
+
+    @Label("Response Code")
+    public int responseCode;
+
+    @Label("Response Length")
+    @Description("Characters in the response body")
+    public long responseChars;
+}
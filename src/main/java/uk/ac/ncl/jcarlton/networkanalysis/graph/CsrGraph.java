@@ -0,0 +1,220 @@
+package uk.ac.ncl.jcarlton.networkanalysis.graph;
+
+import uk.ac.ncl.jcarlton.networkanalysis.util.IdSet;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+/**
+ * A directed graph of user ids held in compressed sparse row
+ * (CSR) form.
+ * <p>
+ * Every user id is mapped to a dense vertex index in
+ * {@code [0, n)}. The out edges of vertex {@code v} are the
+ * sorted slice {@code targets[offsets[v] .. offsets[v + 1])},
+ * and the in edges are held the same way in a transposed copy,
+ * so the whole graph is a handful of primitive arrays no matter
+ * how many edges it has. An edge {@code a -> b} means that
+ * {@code a} follows {@code b}.
+ * <p>
+ * Graphs are immutable, create them with a {@link Builder}.
+ */
+public class CsrGraph {
+
+    private final long[] vertexIds;
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final int[] inOffsets;
+    private final int[] inTargets;
+
+    private CsrGraph(long[] vertexIds, int[] outOffsets, int[] outTargets, int[] inOffsets, int[] inTargets) {
+        this.vertexIds = vertexIds;
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        this.inOffsets = inOffsets;
+        this.inTargets = inTargets;
+    }
+
+    /**
+     * @return the number of vertices
+     */
+    public int vertexCount() {
+        return vertexIds.length;
+    }
+
+    /**
+     * @return the number of (distinct) edges
+     */
+    public int edgeCount() {
+        return outTargets.length;
+    }
+
+    /**
+     * @param id a user id
+     * @return the vertex index of the user, or -1 if the user
+     * is not in the graph
+     */
+    public int index(long id) {
+        int i = Arrays.binarySearch(vertexIds, id);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     * @param vertex a vertex index
+     * @return the user id of the vertex
+     */
+    public long id(int vertex) {
+        return vertexIds[vertex];
+    }
+
+    public int outDegree(int vertex) {
+        return outOffsets[vertex + 1] - outOffsets[vertex];
+    }
+
+    public int inDegree(int vertex) {
+        return inOffsets[vertex + 1] - inOffsets[vertex];
+    }
+
+    /**
+     * The out edges of every vertex, indexed through
+     * {@link #outOffsets()}. The arrays are shared, not copied,
+     * and must not be modified.
+     */
+    int[] outTargets() {
+        return outTargets;
+    }
+
+    int[] outOffsets() {
+        return outOffsets;
+    }
+
+    int[] inTargets() {
+        return inTargets;
+    }
+
+    int[] inOffsets() {
+        return inOffsets;
+    }
+
+    /**
+     * @param from a vertex index
+     * @param to   a vertex index
+     * @return true if there is an edge from {@code from} to {@code to}
+     */
+    public boolean hasEdge(int from, int to) {
+        return Arrays.binarySearch(outTargets, outOffsets[from], outOffsets[from + 1], to) >= 0;
+    }
+
+    /**
+     * Collects edges and builds a {@link CsrGraph}.
+     * <p>
+     * Edges are buffered as pairs of user ids; duplicate edges
+     * and self loops are dropped on {@link #build()}.
+     */
+    public static class Builder {
+        private long[] from = new long[1024];
+        private long[] to = new long[1024];
+        private int size = 0;
+
+        /**
+         * Add the edge {@code follower -> followed}.
+         *
+         * @param follower the user that follows
+         * @param followed the user being followed
+         * @return this builder
+         */
+        public Builder addEdge(long follower, long followed) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            from[size] = follower;
+            to[size] = followed;
+            size++;
+            return this;
+        }
+
+        /**
+         * Add an edge from every follower to the user.
+         *
+         * @param user      the user being followed
+         * @param followers the ids of the followers
+         * @return this builder
+         */
+        public Builder addFollowers(long user, IdSet followers) {
+            PrimitiveIterator.OfLong it = followers.iterator();
+            while (it.hasNext()) addEdge(it.nextLong(), user);
+            return this;
+        }
+
+        /**
+         * Add an edge from the user to every friend.
+         *
+         * @param user    the user that follows
+         * @param friends the ids of the users they follow
+         * @return this builder
+         */
+        public Builder addFriends(long user, IdSet friends) {
+            PrimitiveIterator.OfLong it = friends.iterator();
+            while (it.hasNext()) addEdge(user, it.nextLong());
+            return this;
+        }
+
+        public CsrGraph build() {
+            // dense, sorted vertex ids
+            long[] ids = new long[size * 2];
+            System.arraycopy(from, 0, ids, 0, size);
+            System.arraycopy(to, 0, ids, size, size);
+            Arrays.parallelSort(ids);
+            int n = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (i == 0 || ids[i] != ids[i - 1]) ids[n++] = ids[i];
+            }
+            long[] vertexIds = Arrays.copyOf(ids, n);
+
+            int[] src = new int[size];
+            int[] dst = new int[size];
+            IntStream.range(0, size).parallel().forEach(i -> {
+                src[i] = Arrays.binarySearch(vertexIds, from[i]);
+                dst[i] = Arrays.binarySearch(vertexIds, to[i]);
+            });
+
+            int[][] out = toCsr(n, src, dst);
+            int[][] in = toCsr(n, dst, src);
+            return new CsrGraph(vertexIds, out[0], out[1], in[0], in[1]);
+        }
+
+        /**
+         * Counting sort the edges by source, then sort and
+         * de-duplicate each row.
+         *
+         * @return {offsets, targets}
+         */
+        private static int[][] toCsr(int n, int[] src, int[] dst) {
+            int[] offsets = new int[n + 1];
+            for (int s : src) offsets[s + 1]++;
+            for (int i = 0; i < n; i++) offsets[i + 1] += offsets[i];
+
+            int[] targets = new int[src.length];
+            int[] next = Arrays.copyOf(offsets, n);
+            for (int i = 0; i < src.length; i++) {
+                if (src[i] != dst[i]) targets[next[src[i]]++] = dst[i];
+            }
+
+            // compact each row in place, dropping self loops and duplicates
+            int write = 0;
+            for (int v = 0; v < n; v++) {
+                int start = offsets[v];
+                int end = next[v];
+                Arrays.sort(targets, start, end);
+                offsets[v] = write;
+                for (int i = start; i < end; i++) {
+                    if (write == offsets[v] || targets[i] != targets[write - 1]) targets[write++] = targets[i];
+                }
+            }
+            offsets[n] = write;
+            return new int[][]{offsets, Arrays.copyOf(targets, write)};
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package uk.ac.ncl.jcarlton.networkanalysis.graph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Multi-hop link measures over a {@link CsrGraph}, computed in
+ * parallel on the common fork/join pool.
+ * <p>
+ * Work is split by vertex (or edge) range until a range is
+ * small enough to run directly, so the measures scale with
+ * the number of cores on graphs with tens of millions of
+ * edges.
+ */
+public class GraphAnalysis {
+
+    /**
+     * Ranges smaller than this are processed on a single thread.
+     */
+    private static final int THRESHOLD = 1 << 13;
+
+    private GraphAnalysis() {}
+
+    /**
+     * Check which of the targets can be reached from the source
+     * by following at most two out edges, e.g. the source follows
+     * someone who follows the target.
+     *
+     * @param graph   the graph
+     * @param source  the vertex to start from
+     * @param targets the vertices to look for
+     * @return bit i is set if {@code targets[i]} is reachable
+     */
+    public static BitSet twoHopReachable(CsrGraph graph, int source, int[] targets) {
+        int[] sortedTargets = targets.clone();
+        Arrays.sort(sortedTargets);
+
+        int[] offsets = graph.outOffsets();
+        BitSet found = ForkJoinPool.commonPool().invoke(
+                new TwoHopTask(graph, sortedTargets, offsets[source], offsets[source + 1]));
+
+        // map the positions in the sorted copy back to the callers order
+        BitSet result = new BitSet(targets.length);
+        for (int i = 0; i < targets.length; i++) {
+            if (found.get(Arrays.binarySearch(sortedTargets, targets[i]))) result.set(i);
+        }
+        return result;
+    }
+
+    /**
+     * Count the neighbours the source has in common with each
+     * of the targets, treating a follow in either direction as
+     * a neighbour.
+     *
+     * @param graph   the graph
+     * @param source  the vertex to compare against
+     * @param targets the vertices to compare; a negative entry,
+     *                e.g. a user not in the graph, counts 0
+     * @return the number of common neighbours for each target
+     */
+    public static int[] commonNeighbours(CsrGraph graph, int source, int[] targets) {
+        int[] sourceNeighbours = neighbours(graph, source);
+        int[] result = new int[targets.length];
+        ForkJoinPool.commonPool().invoke(new RangeAction(0, targets.length, 1) {
+            @Override
+            void compute(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    if (targets[i] >= 0)
+                        result[i] = intersectionSize(sourceNeighbours, neighbours(graph, targets[i]));
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Personalized PageRank by power iteration, with every
+     * random jump landing back on one of the seed vertices.
+     * <p>
+     * Each iteration pulls rank along the in edges of each vertex,
+     * so vertex ranges can be updated in parallel without any
+     * locking. The rank of dangling vertices (no out edges) is
+     * returned to the seeds.
+     *
+     * @param graph      the graph
+     * @param seeds      the vertices random jumps return to
+     * @param damping    the probability of following an edge, e.g. 0.85
+     * @param iterations the number of iterations to run
+     * @return the rank of every vertex, summing to 1
+     */
+    public static double[] personalizedPageRank(CsrGraph graph, int[] seeds, double damping, int iterations) {
+        int n = graph.vertexCount();
+        double[] teleport = new double[n];
+        for (int s : seeds) teleport[s] += 1.0 / seeds.length;
+
+        double[] rank = teleport.clone();
+        double[] next = new double[n];
+        double[] contribution = new double[n];
+        int[] inOffsets = graph.inOffsets();
+        int[] inTargets = graph.inTargets();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            double[] current = rank;
+            pool.invoke(new RangeAction(0, n, THRESHOLD) {
+                @Override
+                void compute(int from, int to) {
+                    for (int v = from; v < to; v++) {
+                        int degree = graph.outDegree(v);
+                        contribution[v] = degree == 0 ? 0 : current[v] / degree;
+                    }
+                }
+            });
+            double dangling = pool.invoke(new DanglingTask(graph, current, 0, n));
+
+            double[] target = next;
+            pool.invoke(new RangeAction(0, n, THRESHOLD) {
+                @Override
+                void compute(int from, int to) {
+                    for (int v = from; v < to; v++) {
+                        double sum = 0;
+                        for (int e = inOffsets[v]; e < inOffsets[v + 1]; e++)
+                            sum += contribution[inTargets[e]];
+                        target[v] = damping * (sum + dangling * teleport[v]) + (1 - damping) * teleport[v];
+                    }
+                }
+            });
+
+            next = rank;
+            rank = target;
+        }
+        return rank;
+    }
+
+    /**
+     * @return the sorted union of the in and out neighbours
+     */
+    static int[] neighbours(CsrGraph graph, int vertex) {
+        int[] out = graph.outTargets();
+        int[] in = graph.inTargets();
+        int i = graph.outOffsets()[vertex], iEnd = graph.outOffsets()[vertex + 1];
+        int j = graph.inOffsets()[vertex], jEnd = graph.inOffsets()[vertex + 1];
+
+        int[] result = new int[(iEnd - i) + (jEnd - j)];
+        int size = 0;
+        while (i < iEnd || j < jEnd) {
+            int next;
+            if (j == jEnd || (i < iEnd && out[i] < in[j])) next = out[i++];
+            else if (i == iEnd || in[j] < out[i]) next = in[j++];
+            else {
+                next = out[i++];
+                j++;
+            }
+            result[size++] = next;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    static int intersectionSize(int[] a, int[] b) {
+        int i = 0, j = 0, count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Runs {@link #compute(int, int)} over a range, splitting it
+     * in half until it is no larger than the threshold.
+     */
+    private abstract static class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        RangeAction(int from, int to, int threshold) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        abstract void compute(int from, int to);
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                compute(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            RangeAction outer = this;
+            invokeAll(new RangeAction(from, mid, threshold) {
+                @Override
+                void compute(int f, int t) {
+                    outer.compute(f, t);
+                }
+            }, new RangeAction(mid, to, threshold) {
+                @Override
+                void compute(int f, int t) {
+                    outer.compute(f, t);
+                }
+            });
+        }
+    }
+
+    /**
+     * Marks the targets found among the neighbours, and the
+     * neighbours of neighbours, in a range of the source's out
+     * edges. Ranges are split by the number of second hop edges
+     * so that one very popular neighbour does not serialize the
+     * work.
+     */
+    private static class TwoHopTask extends RecursiveTask<BitSet> {
+        private static final long serialVersionUID = 1L;
+
+        private final CsrGraph graph;
+        private final int[] targets;
+        private final int from;
+        private final int to;
+
+        TwoHopTask(CsrGraph graph, int[] targets, int from, int to) {
+            this.graph = graph;
+            this.targets = targets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected BitSet compute() {
+            int[] offsets = graph.outOffsets();
+            int[] edges = graph.outTargets();
+
+            long work = 0;
+            for (int e = from; e < to && work <= THRESHOLD; e++)
+                work += graph.outDegree(edges[e]) + 1;
+
+            if (work > THRESHOLD && to - from > 1) {
+                int mid = (from + to) >>> 1;
+                TwoHopTask left = new TwoHopTask(graph, targets, from, mid);
+                left.fork();
+                BitSet result = new TwoHopTask(graph, targets, mid, to).compute();
+                result.or(left.join());
+                return result;
+            }
+
+            BitSet result = new BitSet(targets.length);
+            for (int e = from; e < to; e++) {
+                int w = edges[e];
+                mark(result, w);
+                for (int f = offsets[w]; f < offsets[w + 1]; f++)
+                    mark(result, edges[f]);
+            }
+            return result;
+        }
+
+        private void mark(BitSet result, int vertex) {
+            int i = Arrays.binarySearch(targets, vertex);
+            if (i >= 0) result.set(i);
+        }
+    }
+
+    /**
+     * Sums the rank held by vertices with no out edges.
+     */
+    private static class DanglingTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final CsrGraph graph;
+        private final double[] rank;
+        private final int from;
+        private final int to;
+
+        DanglingTask(CsrGraph graph, double[] rank, int from, int to) {
+            this.graph = graph;
+            this.rank = rank;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                DanglingTask left = new DanglingTask(graph, rank, from, mid);
+                left.fork();
+                double right = new DanglingTask(graph, rank, mid, to).compute();
+                return left.join() + right;
+            }
+            double sum = 0;
+            for (int v = from; v < to; v++) {
+                if (graph.outDegree(v) == 0) sum += rank[v];
+            }
+            return sum;
+        }
+    }
+}
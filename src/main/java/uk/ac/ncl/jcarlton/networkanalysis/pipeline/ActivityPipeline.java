@@ -0,0 +1,315 @@
+package uk.ac.ncl.jcarlton.networkanalysis.pipeline;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import twitter4j.Twitter;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.ClassifierClient;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.LinkAnalysisTwitter;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.TopicDetection;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SocialNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.util.Utility;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Build the recent activity of many users at once, e.g. for
+ * a nightly rebuild of every profile.
+ * <p>
+ * The work {@link LinkAnalysisTwitter#recentActivity(List)}
+ * does for one user is split into stages, each with its own
+ * pool of workers:
+ * <ol>
+ *     <li>fetch - the timeline since the last check</li>
+ *     <li>preprocess - clean the text for classification</li>
+ *     <li>dedup - drop repeated text, and text already
+ *     classified for another user</li>
+ *     <li>classify - send the rest to Monkey Learn, at most
+ *     {@value #CLASSIFY_BATCH_SIZE} texts per request; a user whose
+ *     texts go unanswered is reported and dropped, so nothing is
+ *     written for them</li>
+ *     <li>aggregate - count the topics into an activity entry</li>
+ *     <li>persist - append the entry to the user's compressed
+ *     history, without rewriting what is already there</li>
+ * </ol>
+ * As for a single user, an entry is only written when topics
+ * were found, and the user's high water marks are only raised
+ * once it has been, so a failed user's tweets are fetched again
+ * on the next run rather than lost.
+ * The stages are joined by bounded queues, so memory stays flat
+ * however many users are submitted: a slow stage fills its queue
+ * and blocks the stages (and the caller) before it.
+ */
+public class ActivityPipeline {
+
+    static final int CLASSIFY_BATCH_SIZE = 20;
+
+    private final SocialNetworkProvider provider;
+    private final Date since;
+    private final int queueCapacity;
+    private final int maxCachedTopics;
+    private final int[] workers;
+
+    private final Map<String, String> topicCache = new ConcurrentHashMap<>();
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private volatile List<Stage> stages = Collections.emptyList();
+    private volatile long started;
+
+    public static class Builder {
+        private final SocialNetworkProvider provider;
+        private Date since = null;
+        private int queueCapacity = 256;
+        private int maxCachedTopics = 100_000;
+        private int fetchWorkers = 8;
+        private int preprocessWorkers = 2;
+        private int dedupWorkers = 1;
+        private int classifyWorkers = 4;
+        private int aggregateWorkers = 1;
+        private int persistWorkers = 2;
+
+        /**
+         * @param twitterInstance pre-authenticated instance of the Twitter4j
+         *                        Twitter API.
+         */
+        public Builder(Twitter twitterInstance) {
+            this(new TwitterNetworkProvider(twitterInstance));
+        }
+
+        /**
+         * @param provider the social network to fetch from
+         */
+        public Builder(SocialNetworkProvider provider) {
+            this.provider = provider;
+        }
+
+        public Builder since(Date since) {
+            this.since = since;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder maxCachedTopics(int maxCachedTopics) {
+            this.maxCachedTopics = maxCachedTopics;
+            return this;
+        }
+
+        public Builder fetchWorkers(int fetchWorkers) {
+            this.fetchWorkers = fetchWorkers;
+            return this;
+        }
+
+        public Builder preprocessWorkers(int preprocessWorkers) {
+            this.preprocessWorkers = preprocessWorkers;
+            return this;
+        }
+
+        public Builder dedupWorkers(int dedupWorkers) {
+            this.dedupWorkers = dedupWorkers;
+            return this;
+        }
+
+        public Builder classifyWorkers(int classifyWorkers) {
+            this.classifyWorkers = classifyWorkers;
+            return this;
+        }
+
+        public Builder aggregateWorkers(int aggregateWorkers) {
+            this.aggregateWorkers = aggregateWorkers;
+            return this;
+        }
+
+        public Builder persistWorkers(int persistWorkers) {
+            this.persistWorkers = persistWorkers;
+            return this;
+        }
+
+        public ActivityPipeline build() {
+            return new ActivityPipeline(this);
+        }
+    }
+
+    private ActivityPipeline(Builder builder) {
+        this.provider = builder.provider;
+        this.since = builder.since;
+        this.queueCapacity = builder.queueCapacity;
+        this.maxCachedTopics = builder.maxCachedTopics;
+        this.workers = new int[] {
+                builder.fetchWorkers, builder.preprocessWorkers, builder.dedupWorkers,
+                builder.classifyWorkers, builder.aggregateWorkers, builder.persistWorkers
+        };
+    }
+
+    /**
+     * Build and persist the recent activity of every user, blocking
+     * until the last one has been written.
+     * <p>
+     * A user that fails in any stage is reported and left out; the
+     * rest carry on.
+     *
+     * @param users the users to process
+     * @return the stats of each stage, in pipeline order
+     * @throws InterruptedException if interrupted while waiting, in
+     *                              which case the workers are stopped
+     */
+    public synchronized List<StageStats> run(Iterable<Long> users) throws InterruptedException {
+        List<Stage> pipeline = Arrays.asList(
+                stage("fetch", 0, this::fetch),
+                stage("preprocess", 1, this::preprocess),
+                stage("dedup", 2, this::dedup),
+                stage("classify", 3, this::classify),
+                stage("aggregate", 4, this::aggregate),
+                stage("persist", 5, this::persist));
+        for (int i = 0; i < pipeline.size() - 1; i++)
+            pipeline.get(i).setNext(pipeline.get(i + 1));
+
+        started = System.nanoTime();
+        stages = pipeline;
+        pipeline.forEach(Stage::start);
+
+        Stage first = pipeline.get(0);
+        try {
+            for (long userId : users)
+                first.getInput().put(new UserActivity(userId));
+            for (int i = 0; i < first.getWorkers(); i++)
+                first.getInput().put(UserActivity.END);
+
+            for (Stage s : pipeline)
+                s.join();
+        } catch (InterruptedException e) {
+            pipeline.forEach(Stage::interrupt);
+            throw e;
+        }
+        return getStats();
+    }
+
+    private Stage stage(String name, int index, Stage.Work work) {
+        return new Stage(name, workers[index], new ArrayBlockingQueue<>(queueCapacity), work);
+    }
+
+    private boolean fetch(UserActivity activity) throws Exception {
+        LinkAnalysisTwitter link = new LinkAnalysisTwitter(activity.getUserId(), provider, since);
+        activity.link = link;
+        try {
+            activity.timeline = link.getTimeline();
+        } finally {
+            apiCalls.addAndGet(link.getApiCalls());
+        }
+        return true;
+    }
+
+    private boolean preprocess(UserActivity activity) {
+        List<String> processed = new ArrayList<>(activity.timeline.size());
+        for (String text : activity.timeline)
+            processed.add(TopicDetection.preprocess(text));
+        activity.processed = processed;
+        return true;
+    }
+
+    private boolean dedup(UserActivity activity) {
+        Map<String, String> topics = new HashMap<>();
+        Set<String> unclassified = new LinkedHashSet<>();
+        for (String text : activity.processed) {
+            if (text == null || topics.containsKey(text) || unclassified.contains(text)) continue;
+
+            String topic = topicCache.get(text);
+            if (topic != null) {
+                topics.put(text, topic);
+                cacheHits.incrementAndGet();
+            } else
+                unclassified.add(text);
+        }
+        activity.topics = topics;
+        activity.unclassified = unclassified;
+        return true;
+    }
+
+    private boolean classify(UserActivity activity) throws ClassifierClient.UnavailableException {
+        List<String> texts = new ArrayList<>(activity.unclassified);
+        for (int from = 0; from < texts.size(); from += CLASSIFY_BATCH_SIZE) {
+            List<String> batch = Utility.safeSubList(texts, from, from + CLASSIFY_BATCH_SIZE);
+            Map<String, JSONArray> response = new TopicDetection(batch).detectTopicsAll();
+            for (String text : batch) {
+                JSONArray classification = response.get(text);
+                String topic = classification == null ? "" : TopicDetection.topLabel(classification);
+                activity.topics.put(text, topic);
+                if (!topic.isEmpty() && topicCache.size() < maxCachedTopics)
+                    topicCache.put(text, topic);
+            }
+        }
+        return true;
+    }
+
+    private boolean aggregate(UserActivity activity) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String topic : activity.topics.values()) {
+            if (!topic.isEmpty())
+                counts.merge(topic, 1, Integer::sum);
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("dd-MM-yyyy-HH:mm:ss");
+        String currentDate = format.format(new Date());
+
+        JSONObject result = new JSONObject();
+        result.put("user_id", activity.getUserId());
+        result.put("current_date", currentDate);
+        result.put("last_checked", since == null ? currentDate : format.format(since));
+        result.put("timeline_since_last_checked", activity.timeline);
+        result.put("topics_posted", TopicDetection.countsToJSON(counts));
+        activity.result = result;
+
+        // nothing later needs these, let them go while the entry waits to be written
+        activity.processed = null;
+        activity.unclassified = null;
+        activity.topics = null;
+        return true;
+    }
+
+    private boolean persist(UserActivity activity) throws Exception {
+        // nothing new, or nothing could be classified: leave the history and marks as they are
+        if (((JSONArray) activity.result.get("topics_posted")).isEmpty())
+            return false;
+
+        new Utility().appendJSON(activity.result, Long.toString(activity.getUserId()));
+        activity.link.commitHighWaterMarks();
+        return true;
+    }
+
+    /**
+     * Stats of each stage so far; safe to call from another thread
+     * while {@link #run(Iterable)} is in progress.
+     *
+     * @return the stats of each stage, in pipeline order
+     */
+    public List<StageStats> getStats() {
+        long elapsed = System.nanoTime() - started;
+        List<StageStats> result = new ArrayList<>();
+        for (Stage s : stages)
+            result.add(s.stats(elapsed));
+        return result;
+    }
+
+    /**
+     * @return the Twitter API calls made so far
+     */
+    public long getApiCalls() {
+        return apiCalls.get();
+    }
+
+    /**
+     * @return the number of texts whose topic was found in the
+     * cache, rather than classified again
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+}
@@ -0,0 +1,126 @@
+package uk.ac.ncl.jcarlton.networkanalysis.pipeline;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of an {@link ActivityPipeline}: a fixed pool of
+ * workers taking users from a bounded input queue and putting
+ * them on the next stage's queue.
+ * <p>
+ * Putting onto a full queue blocks, so a slow stage holds back
+ * the stages before it rather than letting work pile up in
+ * memory. Once every worker has seen the end marker the stage
+ * passes one on to each worker of the next stage.
+ */
+final class Stage {
+
+    /**
+     * The work done on each user.
+     */
+    interface Work {
+        /**
+         * @param activity the user being processed
+         * @return false to drop the user from the rest of the pipeline
+         * @throws Exception if the user could not be processed, which
+         *                   also drops them
+         */
+        boolean process(UserActivity activity) throws Exception;
+    }
+
+    private final String name;
+    private final int workers;
+    private final Work work;
+    private final BlockingQueue<UserActivity> input;
+    private Stage next;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private Thread[] threads;
+
+    Stage(String name, int workers, BlockingQueue<UserActivity> input, Work work) {
+        if (workers < 1)
+            throw new IllegalArgumentException("A stage needs at least one worker: " + name);
+        this.name = name;
+        this.workers = workers;
+        this.input = input;
+        this.work = work;
+    }
+
+    void setNext(Stage next) {
+        this.next = next;
+    }
+
+    BlockingQueue<UserActivity> getInput() {
+        return input;
+    }
+
+    int getWorkers() {
+        return workers;
+    }
+
+    void start() {
+        running.set(workers);
+        threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            threads[i] = new Thread(this::runWorker, "pipeline-" + name + "-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    void join() throws InterruptedException {
+        for (Thread t : threads)
+            t.join();
+    }
+
+    void interrupt() {
+        if (threads == null) return;
+        for (Thread t : threads)
+            t.interrupt();
+    }
+
+    private void runWorker() {
+        try {
+            UserActivity activity;
+            while ((activity = input.take()) != UserActivity.END) {
+                long start = System.nanoTime();
+                boolean keep;
+                try {
+                    keep = work.process(activity);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    System.err.println("Stage " + name + " failed for user " + activity.getUserId() + ": " + e);
+                    failed.incrementAndGet();
+                    continue;
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                }
+
+                processed.incrementAndGet();
+                if (!keep)
+                    dropped.incrementAndGet();
+                else if (next != null)
+                    next.input.put(activity);
+            }
+
+            // the last worker out tells the next stage the input has ended
+            if (running.decrementAndGet() == 0 && next != null) {
+                for (int i = 0; i < next.workers; i++)
+                    next.input.put(UserActivity.END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    StageStats stats(long elapsedNanos) {
+        return new StageStats(name, workers, processed.get(), dropped.get(), failed.get(),
+                busyNanos.get(), input.size(), elapsedNanos);
+    }
+}
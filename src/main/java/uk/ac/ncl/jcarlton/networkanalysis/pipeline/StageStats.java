@@ -0,0 +1,92 @@
+package uk.ac.ncl.jcarlton.networkanalysis.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the throughput of one pipeline stage.
+ * <p>
+ * The stage with the highest utilization (the share of its
+ * workers' time spent busy) is the bottleneck; giving it more
+ * workers, or the others fewer, balances the pipeline.
+ */
+public class StageStats {
+
+    private final String name;
+    private final int workers;
+    private final long processed;
+    private final long dropped;
+    private final long failed;
+    private final long busyNanos;
+    private final int queued;
+    private final long elapsedNanos;
+
+    StageStats(String name, int workers, long processed, long dropped, long failed,
+               long busyNanos, int queued, long elapsedNanos) {
+        this.name = name;
+        this.workers = workers;
+        this.processed = processed;
+        this.dropped = dropped;
+        this.failed = failed;
+        this.busyNanos = busyNanos;
+        this.queued = queued;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return users processed per second of wall clock time
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : processed / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * @return the average time spent on one user, in milliseconds
+     */
+    public double getMeanMillis() {
+        long total = processed + failed;
+        return total == 0 ? 0 : busyNanos / (double) total / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the share of the workers' time spent busy, from 0 to 1
+     */
+    public double getUtilization() {
+        return elapsedNanos == 0 ? 0 : busyNanos / ((double) elapsedNanos * workers);
+    }
+
+    /**
+     * Getter methods for the stage stats
+     */
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-10s workers=%d processed=%d dropped=%d failed=%d queued=%d " +
+                        "throughput=%.1f/s mean=%.1fms utilization=%.0f%%",
+                name, workers, processed, dropped, failed, queued,
+                getThroughput(), getMeanMillis(), getUtilization() * 100);
+    }
+}
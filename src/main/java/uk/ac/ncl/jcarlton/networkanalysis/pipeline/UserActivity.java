@@ -0,0 +1,45 @@
+package uk.ac.ncl.jcarlton.networkanalysis.pipeline;
+
+import org.json.simple.JSONObject;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.LinkAnalysisTwitter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The state of one user as it moves through an
+ * {@link ActivityPipeline}. Each stage fills in the
+ * fields the next one needs and is the only one
+ * touching the object while it holds it.
+ */
+final class UserActivity {
+
+    /**
+     * Marks the end of a stage's input.
+     */
+    static final UserActivity END = new UserActivity(0);
+
+    private final long userId;
+
+    /** fetch: holds the high water marks to commit once persisted */
+    LinkAnalysisTwitter link;
+    /** fetch: the raw tweet text */
+    List<String> timeline;
+    /** preprocess: the cleaned text, null where nothing was left */
+    List<String> processed;
+    /** dedup: the distinct cleaned text not yet classified */
+    Set<String> unclassified;
+    /** dedup and classify: each distinct cleaned text mapped to its topic */
+    Map<String, String> topics;
+    /** aggregate: the activity entry to persist */
+    JSONObject result;
+
+    UserActivity(long userId) {
+        this.userId = userId;
+    }
+
+    long getUserId() {
+        return userId;
+    }
+}
@@ -0,0 +1,34 @@
+package uk.ac.ncl.jcarlton.networkanalysis.policy;
+
+/**
+ * Describes how the individual checks are combined into
+ * an authentication decision.
+ * <p>
+ * A policy is a boolean {@link Expression} over the rule
+ * names below; the {@link PolicyEvaluator} decides the
+ * order they are run in.
+ */
+public interface DecisionPolicy {
+
+    /**
+     * The static users follow the requesting user.
+     */
+    String FOLLOW = "follow";
+
+    /**
+     * The requesting user follows the static users.
+     */
+    String FRIEND = "friend";
+
+    /**
+     * The requesting user's recent activity is in line
+     * with their stored activity.
+     */
+    String ACTIVITY = "activity";
+
+    /**
+     * @return the expression that must hold for the requesting
+     * user to be authenticated
+     */
+    Expression getExpression();
+}
@@ -0,0 +1,38 @@
+package uk.ac.ncl.jcarlton.networkanalysis.policy;
+
+import static uk.ac.ncl.jcarlton.networkanalysis.policy.Expression.and;
+import static uk.ac.ncl.jcarlton.networkanalysis.policy.Expression.rule;
+
+/**
+ * The standard policy: the requesting user must be
+ * followed by the static users and their recent activity
+ * must match their history.
+ * <p>
+ * The friend link is not part of the expression as it
+ * never changed the outcome of a decision.
+ */
+public class DefaultDecisionPolicy implements DecisionPolicy {
+
+    /**
+     * A follower check is usually a single page of ids.
+     */
+    public static final double FOLLOW_COST = 1;
+
+    /**
+     * Same as the follower check, but for friends.
+     */
+    public static final double FRIEND_COST = 1;
+
+    /**
+     * The activity check pages through the timeline,
+     * classifies it and rewrites the stored history.
+     */
+    public static final double ACTIVITY_COST = 10;
+
+    private final Expression expression = and(rule(FOLLOW, FOLLOW_COST), rule(ACTIVITY, ACTIVITY_COST));
+
+    @Override
+    public Expression getExpression() {
+        return expression;
+    }
+}
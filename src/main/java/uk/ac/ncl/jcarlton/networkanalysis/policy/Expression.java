@@ -0,0 +1,188 @@
+package uk.ac.ncl.jcarlton.networkanalysis.policy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A boolean expression over named decision rules, each
+ * carrying an estimated cost.
+ * <p>
+ * The children of {@link #and(Expression...)} and
+ * {@link #or(Expression...)} are held cheapest first, so
+ * that the {@link PolicyEvaluator} runs the cheap rules
+ * first and can skip the expensive ones once the result
+ * is already known.
+ */
+public abstract class Expression {
+
+    private static final Comparator<Expression> BY_COST = (o1, o2) -> Double.compare(o1.getCost(), o2.getCost());
+
+    private Expression() {}
+
+    /**
+     * The estimated cost of evaluating every rule in the
+     * expression, e.g. the number of API calls made.
+     *
+     * @return the estimated cost
+     */
+    public abstract double getCost();
+
+    /**
+     * A single named rule.
+     *
+     * @param name the name the evaluator looks the rule up by
+     * @param cost the estimated cost of checking the rule
+     * @return the rule expression
+     */
+    public static Expression rule(String name, double cost) {
+        return new Rule(name, cost);
+    }
+
+    /**
+     * @param expressions the expressions that must all hold
+     * @return the conjunction of the expressions
+     */
+    public static Expression and(Expression... expressions) {
+        return new And(expressions);
+    }
+
+    /**
+     * @param expressions the expressions of which one must hold
+     * @return the disjunction of the expressions
+     */
+    public static Expression or(Expression... expressions) {
+        return new Or(expressions);
+    }
+
+    /**
+     * @param expression the expression to negate
+     * @return the negated expression
+     */
+    public static Expression not(Expression expression) {
+        return new Not(expression);
+    }
+
+    private static List<Expression> cheapestFirst(Expression[] expressions) {
+        if (expressions.length == 0)
+            throw new IllegalArgumentException("At least one expression is required");
+        List<Expression> list = new ArrayList<>(Arrays.asList(expressions));
+        list.sort(BY_COST);
+        return Collections.unmodifiableList(list);
+    }
+
+    private static double totalCost(List<Expression> expressions) {
+        double cost = 0;
+        for (Expression e : expressions)
+            cost += e.getCost();
+        return cost;
+    }
+
+    /**
+     * A named rule, the leaf of an expression.
+     */
+    public static final class Rule extends Expression {
+        private final String name;
+        private final double cost;
+
+        private Rule(String name, double cost) {
+            this.name = name;
+            this.cost = cost;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public double getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Holds when every child holds.
+     */
+    public static final class And extends Expression {
+        private final List<Expression> children;
+        private final double cost;
+
+        private And(Expression[] expressions) {
+            this.children = cheapestFirst(expressions);
+            this.cost = totalCost(children);
+        }
+
+        public List<Expression> getChildren() {
+            return children;
+        }
+
+        @Override
+        public double getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return "and" + children;
+        }
+    }
+
+    /**
+     * Holds when any child holds.
+     */
+    public static final class Or extends Expression {
+        private final List<Expression> children;
+        private final double cost;
+
+        private Or(Expression[] expressions) {
+            this.children = cheapestFirst(expressions);
+            this.cost = totalCost(children);
+        }
+
+        public List<Expression> getChildren() {
+            return children;
+        }
+
+        @Override
+        public double getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return "or" + children;
+        }
+    }
+
+    /**
+     * Holds when its child does not.
+     */
+    public static final class Not extends Expression {
+        private final Expression child;
+
+        private Not(Expression child) {
+            this.child = child;
+        }
+
+        public Expression getChild() {
+            return child;
+        }
+
+        @Override
+        public double getCost() {
+            return child.getCost();
+        }
+
+        @Override
+        public String toString() {
+            return "not[" + child + "]";
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package uk.ac.ncl.jcarlton.networkanalysis.policy;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Evaluate a {@link DecisionPolicy} expression against a
+ * set of rule checks.
+ * <p>
+ * Children are evaluated cheapest first and evaluation
+ * stops as soon as the result cannot change, so a failed
+ * cheap rule means the expensive ones are never run. Each
+ * rule is run at most once, even if it appears more than
+ * once in the expression.
+ */
+public class PolicyEvaluator {
+
+    private final Map<String, BooleanSupplier> rules;
+    private final Map<String, Boolean> evaluated = new LinkedHashMap<>();
+
+    /**
+     * Object constructor.
+     *
+     * @param rules rule name mapped to the check for that rule
+     */
+    public PolicyEvaluator(Map<String, BooleanSupplier> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Evaluate the expression.
+     *
+     * @param expression to be evaluated
+     * @return the result of the expression
+     */
+    public boolean evaluate(Expression expression) {
+        if (expression instanceof Expression.Rule)
+            return evaluateRule((Expression.Rule) expression);
+
+        if (expression instanceof Expression.And) {
+            for (Expression e : ((Expression.And) expression).getChildren()) {
+                if (!evaluate(e)) return false;
+            }
+            return true;
+        }
+
+        if (expression instanceof Expression.Or) {
+            for (Expression e : ((Expression.Or) expression).getChildren()) {
+                if (evaluate(e)) return true;
+            }
+            return false;
+        }
+
+        return !evaluate(((Expression.Not) expression).getChild());
+    }
+
+    private boolean evaluateRule(Expression.Rule rule) {
+        Boolean result = evaluated.get(rule.getName());
+        if (result == null) {
+            BooleanSupplier check = rules.get(rule.getName());
+            if (check == null)
+                throw new IllegalArgumentException("No check for rule: " + rule.getName());
+            result = check.getAsBoolean();
+            evaluated.put(rule.getName(), result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the rules that were run, in the order they
+     * were run, mapped to their result
+     */
+    public Map<String, Boolean> getEvaluated() {
+        return Collections.unmodifiableMap(evaluated);
+    }
+}
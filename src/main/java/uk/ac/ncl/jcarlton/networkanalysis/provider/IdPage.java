@@ -0,0 +1,37 @@
+package uk.ac.ncl.jcarlton.networkanalysis.provider;
+
+/**
+ * One page of a cursored list of user ids, e.g. followers.
+ */
+public final class IdPage {
+
+    private final long[] ids;
+    private final long nextCursor;
+
+    /**
+     * @param ids        the ids on the page
+     * @param nextCursor the cursor of the next page, 0 if this
+     *                   is the last
+     */
+    public IdPage(long[] ids, long nextCursor) {
+        this.ids = ids;
+        this.nextCursor = nextCursor;
+    }
+
+    public long[] getIDs() {
+        return ids;
+    }
+
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "IdPage{ids=" + ids.length + ", nextCursor=" + nextCursor + "}";
+    }
+}
@@ -0,0 +1,65 @@
+package uk.ac.ncl.jcarlton.networkanalysis.provider;
+
+import twitter4j.TwitterException;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.TweetRecords;
+
+/**
+ * The social network calls the analysis makes, so that it can
+ * run against something other than the live Twitter API.
+ * <p>
+ * {@link uk.ac.ncl.jcarlton.networkanalysis.twitter.TwitterNetworkProvider}
+ * makes the calls through Twitter4j, and {@link SyntheticNetworkProvider}
+ * answers them from a generated network for scale and performance
+ * testing. Each method is a single API call, and implementations
+ * must be safe to call from several threads.
+ * <p>
+ * Errors are reported as {@link TwitterException}s, as the
+ * analysis already handles them (e.g. rate limiting).
+ */
+public interface SocialNetworkProvider {
+
+    /**
+     * @param screenName a username
+     * @return the id of the user
+     * @throws TwitterException if the user could not be looked up
+     */
+    long lookupUserId(String screenName) throws TwitterException;
+
+    /**
+     * @param userId a user id
+     * @param cursor -1 for the first page, then the previous
+     *               page's {@link IdPage#getNextCursor()}
+     * @return one page of the ids of the users following the user
+     * @throws TwitterException if the page could not be fetched
+     */
+    IdPage getFollowersIDs(long userId, long cursor) throws TwitterException;
+
+    /**
+     * @param userId a user id
+     * @param cursor -1 for the first page, then the previous
+     *               page's {@link IdPage#getNextCursor()}
+     * @return one page of the ids of the users the user follows
+     * @throws TwitterException if the page could not be fetched
+     */
+    IdPage getFriendsIDs(long userId, long cursor) throws TwitterException;
+
+    /**
+     * @param userId  a user id
+     * @param page    the page, starting from 1
+     * @param count   the most tweets on a page
+     * @param sinceId only tweets newer than this id, or 0 for all
+     * @return one page of the tweets the user posted, newest first
+     * @throws TwitterException if the page could not be fetched
+     */
+    TweetRecords getUserTimeline(long userId, int page, int count, long sinceId) throws TwitterException;
+
+    /**
+     * @param userId  a user id
+     * @param page    the page, starting from 1
+     * @param count   the most tweets on a page
+     * @param sinceId only tweets newer than this id, or 0 for all
+     * @return one page of the tweets the user liked, newest first
+     * @throws TwitterException if the page could not be fetched
+     */
+    TweetRecords getFavourites(long userId, int page, int count, long sinceId) throws TwitterException;
+}
@@ -0,0 +1,468 @@
+package uk.ac.ncl.jcarlton.networkanalysis.provider;
+
+import twitter4j.TwitterException;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.TweetRecords;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * A {@link SocialNetworkProvider} answering from a generated
+ * network, for measuring how the analysis scales on networks far
+ * larger than can be fetched live. Everything is derived from the
+ * seed, so the same seed always gives the same network, timelines
+ * and likes.
+ * <p>
+ * Users have ids 1 to n. How many users each one follows is drawn
+ * from a power law, and who they follow is drawn with a Zipf-like
+ * preference for low ids, so follower counts are also heavy tailed
+ * and the lowest ids are the large accounts. The follow graph is
+ * held in compressed sparse rows in both directions (about 8 bytes
+ * per edge), so a few million users fit comfortably in memory.
+ * <p>
+ * Timelines and likes are not stored but computed on demand: each
+ * user posts a power-law number of tweets spread over the
+ * {@value #TIMELINE_DAYS} days before the reference time, mostly
+ * about one favourite topic, and likes tweets of users they follow.
+ * Tweet ids increase with time, as on Twitter, so {@code since_id}
+ * works as it does there.
+ * <p>
+ * Each call can be made to take a fixed time, to stand in for
+ * the network, and the calls are counted.
+ */
+public class SyntheticNetworkProvider implements SocialNetworkProvider {
+
+    /**
+     * The most ids on one page, as on Twitter.
+     */
+    public static final int IDS_PAGE_SIZE = 5000;
+
+    /**
+     * The most tweets Twitter keeps in a timeline.
+     */
+    static final int MAX_TWEETS = 3200;
+    static final int TIMELINE_DAYS = 90;
+
+    /**
+     * The epoch of Twitter's tweet ids, which hold the creation
+     * time above {@value #TWEET_ID_USER_BITS} bits of user id.
+     */
+    private static final long TWEET_EPOCH = 1288834974657L;
+    private static final int TWEET_ID_USER_BITS = 22;
+
+    private static final String[][] TOPICS = {
+            {"football", "match", "goal", "league", "striker", "keeper", "derby", "transfer"},
+            {"election", "vote", "policy", "minister", "debate", "parliament", "campaign", "budget"},
+            {"album", "concert", "guitar", "lyrics", "festival", "band", "tour", "single"},
+            {"recipe", "dinner", "bread", "coffee", "restaurant", "spicy", "baking", "brunch"},
+            {"startup", "software", "cloud", "release", "developer", "code", "server", "launch"},
+            {"film", "trailer", "cinema", "actor", "premiere", "sequel", "director", "oscars"},
+            {"hiking", "beach", "flight", "hotel", "mountains", "roadtrip", "island", "passport"},
+            {"science", "research", "space", "telescope", "climate", "physics", "study", "data"}
+    };
+    private static final int WORDS_PER_TWEET = 6;
+
+    // salts keep the draws for each purpose independent
+    private static final long FOLLOWING = 1;
+    private static final long FOLLOW_TARGET = 2;
+    private static final long TWEET_COUNT = 3;
+    private static final long TWEET_TIME = 4;
+    private static final long TOPIC = 5;
+    private static final long WORD = 6;
+    private static final long LIKE_COUNT = 7;
+    private static final long LIKE = 8;
+
+    private final int users;
+    private final long seed;
+    private final long referenceTime;
+    private final long latencyMillis;
+    private final int minTweets;
+    private final double tweetExponent;
+
+    // friends (who each user follows) and followers, by user index
+    private final int[] friendOffsets;
+    private final int[] friendIndices;
+    private final int[] followerOffsets;
+    private final int[] followerIndices;
+
+    private final long generationMillis;
+    private final AtomicLong calls = new AtomicLong();
+
+    public static class Builder {
+        private final int users;
+        private long seed = 42;
+        private int minFollowing = 2;
+        private int maxFollowing = 5000;
+        private double followingExponent = 2.2;
+        private double popularityExponent = 0.8;
+        private int minTweets = 5;
+        private double tweetExponent = 2.0;
+        private long referenceTime = 1472000000000L;
+        private long latencyMillis = 0;
+
+        /**
+         * @param users the number of users in the network
+         */
+        public Builder(int users) {
+            if (users < 1)
+                throw new IllegalArgumentException("A network needs at least 1 user: " + users);
+            this.users = users;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param minFollowing the fewest users a user follows
+         * @param maxFollowing the most users a user follows
+         * @param exponent     the power law exponent of the number
+         *                     followed, above 1
+         */
+        public Builder following(int minFollowing, int maxFollowing, double exponent) {
+            if (exponent <= 1)
+                throw new IllegalArgumentException("The following exponent must be above 1: " + exponent);
+            this.minFollowing = minFollowing;
+            this.maxFollowing = maxFollowing;
+            this.followingExponent = exponent;
+            return this;
+        }
+
+        /**
+         * @param popularityExponent how strongly follows prefer low
+         *                           ids, 0 for not at all
+         */
+        public Builder popularityExponent(double popularityExponent) {
+            this.popularityExponent = popularityExponent;
+            return this;
+        }
+
+        /**
+         * @param minTweets the fewest tweets a user posts
+         * @param exponent  the power law exponent of the number
+         *                  posted, above 1
+         */
+        public Builder tweets(int minTweets, double exponent) {
+            if (exponent <= 1)
+                throw new IllegalArgumentException("The tweet exponent must be above 1: " + exponent);
+            this.minTweets = minTweets;
+            this.tweetExponent = exponent;
+            return this;
+        }
+
+        /**
+         * @param referenceTime the time of the newest possible tweet,
+         *                      in milliseconds since the epoch
+         */
+        public Builder referenceTime(long referenceTime) {
+            this.referenceTime = referenceTime;
+            return this;
+        }
+
+        /**
+         * @param latencyMillis how long each call takes
+         */
+        public Builder latencyMillis(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        public SyntheticNetworkProvider build() {
+            return new SyntheticNetworkProvider(this);
+        }
+    }
+
+    private SyntheticNetworkProvider(Builder builder) {
+        long start = System.nanoTime();
+        this.users = builder.users;
+        this.seed = builder.seed;
+        this.referenceTime = builder.referenceTime;
+        this.latencyMillis = builder.latencyMillis;
+        this.minTweets = builder.minTweets;
+        this.tweetExponent = builder.tweetExponent;
+
+        int maxFollowing = Math.min(builder.maxFollowing, users - 1);
+        int minFollowing = Math.min(builder.minFollowing, maxFollowing);
+
+        // draw how many each user follows, and lay out room for them
+        int[] drawn = new int[users];
+        long total = 0;
+        for (int u = 0; u < users; u++) {
+            drawn[u] = (int) Math.min(maxFollowing, powerLaw(minFollowing, builder.followingExponent, uniform(u, FOLLOWING, 0)));
+            total += drawn[u];
+        }
+        if (total > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many edges for one network: " + total);
+
+        int[] offsets = new int[users + 1];
+        for (int u = 0; u < users; u++)
+            offsets[u + 1] = offsets[u] + drawn[u];
+        int[] targets = new int[(int) total];
+
+        // each user's follows depend only on the seed and the user, so they can be drawn in parallel
+        double popularity = builder.popularityExponent;
+        IntStream.range(0, users).parallel().forEach(u -> {
+            int from = offsets[u], to = offsets[u + 1];
+            int kept = from;
+            for (int i = from; i < to; i++) {
+                int v = popular(popularity, uniform(u, FOLLOW_TARGET, i - from));
+                if (v != u) targets[kept++] = v;
+            }
+            Arrays.sort(targets, from, kept);
+            drawn[u] = unique(targets, from, kept) - from;
+        });
+
+        // drop the repeats and self follows
+        this.friendOffsets = new int[users + 1];
+        for (int u = 0; u < users; u++)
+            friendOffsets[u + 1] = friendOffsets[u] + drawn[u];
+        this.friendIndices = new int[friendOffsets[users]];
+        for (int u = 0; u < users; u++)
+            System.arraycopy(targets, offsets[u], friendIndices, friendOffsets[u], drawn[u]);
+
+        // invert into followers, which come out sorted as users are visited in order
+        this.followerOffsets = new int[users + 1];
+        for (int v : friendIndices)
+            followerOffsets[v + 1]++;
+        for (int v = 0; v < users; v++)
+            followerOffsets[v + 1] += followerOffsets[v];
+        this.followerIndices = new int[friendIndices.length];
+        int[] next = Arrays.copyOf(followerOffsets, users);
+        for (int u = 0; u < users; u++) {
+            for (int i = friendOffsets[u]; i < friendOffsets[u + 1]; i++)
+                followerIndices[next[friendIndices[i]]++] = u;
+        }
+
+        this.generationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Override
+    public long lookupUserId(String screenName) throws TwitterException {
+        call();
+        if (screenName.startsWith("user")) {
+            try {
+                long id = Long.parseLong(screenName.substring(4));
+                index(id);
+                return id;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        throw new TwitterException("No such user: " + screenName);
+    }
+
+    @Override
+    public IdPage getFollowersIDs(long userId, long cursor) throws TwitterException {
+        call();
+        int u = index(userId);
+        return idPage(followerIndices, followerOffsets[u], followerOffsets[u + 1], cursor);
+    }
+
+    @Override
+    public IdPage getFriendsIDs(long userId, long cursor) throws TwitterException {
+        call();
+        int u = index(userId);
+        return idPage(friendIndices, friendOffsets[u], friendOffsets[u + 1], cursor);
+    }
+
+    private static IdPage idPage(int[] indices, int from, int to, long cursor) {
+        int start = from + (int) Math.max(0, cursor);
+        int end = Math.min(to, start + IDS_PAGE_SIZE);
+        long[] ids = new long[Math.max(0, end - start)];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = indices[start + i] + 1L;
+        return new IdPage(ids, end < to ? end - from : 0);
+    }
+
+    @Override
+    public TweetRecords getUserTimeline(long userId, int page, int count, long sinceId) throws TwitterException {
+        call();
+        int u = index(userId);
+        int tweets = tweetCount(u);
+
+        // ids fall as k rises, so the tweets newer than since_id are a prefix
+        int newer = tweets;
+        if (sinceId > 0) {
+            int lo = 0, hi = tweets;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (tweetId(u, mid) > sinceId) lo = mid + 1;
+                else hi = mid;
+            }
+            newer = lo;
+        }
+
+        int from = (int) Math.min(newer, (long) Math.max(0, page - 1) * count);
+        int to = Math.min(newer, from + count);
+        TweetRecords records = new TweetRecords(to - from);
+        for (int k = from; k < to; k++)
+            addTweet(records, u, k);
+        return records;
+    }
+
+    @Override
+    public TweetRecords getFavourites(long userId, int page, int count, long sinceId) throws TwitterException {
+        call();
+        int u = index(userId);
+        int following = friendOffsets[u + 1] - friendOffsets[u];
+        int likes = following == 0 ? 0 : (int) Math.min(MAX_TWEETS, powerLaw(1, tweetExponent, uniform(u, LIKE_COUNT, 0)));
+
+        // like the API, pages are newest first, so the likes are drawn in full and ordered by id
+        long[][] liked = new long[likes][];
+        int n = 0;
+        for (int l = 0; l < likes; l++) {
+            // a recent tweet of someone the user follows
+            int author = friendIndices[friendOffsets[u] + (int) (uniform(u, LIKE, 2L * l) * following)];
+            int k = (int) (uniform(u, LIKE, 2L * l + 1) * Math.min(50, tweetCount(author)));
+            long id = tweetId(author, k);
+            if (id > sinceId)
+                liked[n++] = new long[] {id, author, k};
+        }
+        Arrays.sort(liked, 0, n, (a, b) -> Long.compare(b[0], a[0]));
+
+        int from = (int) Math.min(n, (long) Math.max(0, page - 1) * count);
+        int to = Math.min(n, from + count);
+        TweetRecords records = new TweetRecords(to - from);
+        for (int i = from; i < to; i++)
+            addTweet(records, (int) liked[i][1], (int) liked[i][2]);
+        return records;
+    }
+
+    private void addTweet(TweetRecords records, int u, int k) {
+        records.add(tweetId(u, k), tweetTime(u, k), u + 1L, tweetText(u, k));
+    }
+
+    /**
+     * @return the number of tweets in the user's timeline
+     */
+    private int tweetCount(int u) {
+        return (int) Math.min(MAX_TWEETS, powerLaw(minTweets, tweetExponent, uniform(u, TWEET_COUNT, 0)));
+    }
+
+    /**
+     * The time of the user's k-th newest tweet. Each tweet is at a
+     * random point in its own slot of the timeline, so the times
+     * strictly fall as k rises.
+     */
+    private long tweetTime(int u, int k) {
+        long step = Math.max(1, TimeUnit.DAYS.toMillis(TIMELINE_DAYS) / tweetCount(u));
+        return referenceTime - k * step - (long) (uniform(u, TWEET_TIME, k) * step);
+    }
+
+    private long tweetId(int u, int k) {
+        return (tweetTime(u, k) - TWEET_EPOCH) << TWEET_ID_USER_BITS | (u & ((1 << TWEET_ID_USER_BITS) - 1));
+    }
+
+    /**
+     * Mostly words of the user's favourite topic, some of another.
+     */
+    private String tweetText(int u, int k) {
+        int topic = (int) (uniform(u, TOPIC, 0) * TOPICS.length);
+        if (uniform(u, TOPIC, k + 1L) < 0.3)
+            topic = (int) (uniform(u, TOPIC, -k - 1L) * TOPICS.length);
+
+        String[] words = TOPICS[topic];
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < WORDS_PER_TWEET; w++) {
+            text.append(words[(int) (uniform(u, WORD, (long) k * WORDS_PER_TWEET + w) * words.length)]).append(' ');
+        }
+        return text.append('#').append(words[0]).toString();
+    }
+
+    private int index(long userId) throws TwitterException {
+        if (userId < 1 || userId > users)
+            throw new TwitterException("No such user: " + userId);
+        return (int) (userId - 1);
+    }
+
+    private void call() throws TwitterException {
+        calls.incrementAndGet();
+        if (latencyMillis <= 0) return;
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TwitterException(e);
+        }
+    }
+
+    /**
+     * Draw a user index, index i with weight (i + 1)^-exponent.
+     */
+    private int popular(double exponent, double uniform) {
+        double x;
+        if (exponent == 1) {
+            x = Math.pow(users, uniform);
+        } else {
+            double a = 1 - exponent;
+            x = Math.pow((Math.pow(users + 1, a) - 1) * uniform + 1, 1 / a);
+        }
+        return Math.min(users - 1, (int) x - 1);
+    }
+
+    /**
+     * Draw from a continuous power law with the given minimum.
+     */
+    private static double powerLaw(int min, double exponent, double uniform) {
+        return Math.floor(min * Math.pow(1 - uniform, -1 / (exponent - 1)));
+    }
+
+    private static int unique(int[] sorted, int from, int to) {
+        if (from == to) return to;
+        int last = from;
+        for (int i = from + 1; i < to; i++) {
+            if (sorted[i] != sorted[last]) sorted[++last] = sorted[i];
+        }
+        return last + 1;
+    }
+
+    /**
+     * A uniform double in [0, 1) that depends only on the seed,
+     * the user, the purpose of the draw and its number.
+     */
+    private double uniform(int u, long salt, long i) {
+        long h = mix(seed ^ mix(u * 0x9e3779b97f4a7c15L + salt) ^ mix(i * 0xc2b2ae3d27d4eb4fL + salt));
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Getter methods for the network and call metrics
+     */
+
+    public int getUsers() {
+        return users;
+    }
+
+    public long getEdges() {
+        return friendIndices.length;
+    }
+
+    public int getFollowerCount(long userId) throws TwitterException {
+        int u = index(userId);
+        return followerOffsets[u + 1] - followerOffsets[u];
+    }
+
+    public int getFriendCount(long userId) throws TwitterException {
+        int u = index(userId);
+        return friendOffsets[u + 1] - friendOffsets[u];
+    }
+
+    public long getGenerationMillis() {
+        return generationMillis;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+}
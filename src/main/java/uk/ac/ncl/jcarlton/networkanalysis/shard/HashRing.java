@@ -0,0 +1,135 @@
+package uk.ac.ncl.jcarlton.networkanalysis.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A consistent hash ring mapping requesting users to the node
+ * that serves them.
+ * <p>
+ * Each node is placed on the ring at a number of pseudo-random
+ * points (virtual nodes), and a user belongs to the node owning
+ * the first point at or after the hash of their id. When a node
+ * joins or leaves only the users between its points and their
+ * neighbours move, about 1/n of them, rather than almost all of
+ * them as with {@code id % n}; the virtual nodes keep the shards
+ * of similar size.
+ * <p>
+ * Rings are immutable, {@link #with(String)} and
+ * {@link #without(String)} return a new ring, so a ring can be
+ * read from many threads while membership changes.
+ */
+public final class HashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int virtualNodes;
+    private final SortedSet<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes the node addresses, e.g. {@code localhost:7001}
+     */
+    public HashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param nodes        the node addresses
+     * @param virtualNodes the points each node is placed at
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException("Virtual nodes must be at least 1: " + virtualNodes);
+        this.virtualNodes = virtualNodes;
+        this.nodes = Collections.unmodifiableSortedSet(new TreeSet<>(nodes));
+
+        // sorted by point, ties (vanishingly rare) broken by address so every node agrees
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : this.nodes) {
+            long base = hash(node);
+            for (int i = 0; i < virtualNodes; i++)
+                ring.merge(mix(base + i * 0x9e3779b97f4a7c15L), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+        }
+
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> e : ring.entrySet()) {
+            points[i] = e.getKey();
+            owners[i] = e.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * @param requester a requesting user id
+     * @return the address of the node serving them, or null if
+     * the ring is empty
+     */
+    public String nodeFor(long requester) {
+        if (points.length == 0) return null;
+        int i = Arrays.binarySearch(points, mix(requester));
+        if (i < 0) i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * @param node a node address
+     * @return a ring that also holds the node
+     */
+    public HashRing with(String node) {
+        if (nodes.contains(node)) return this;
+        Set<String> next = new TreeSet<>(nodes);
+        next.add(node);
+        return new HashRing(next, virtualNodes);
+    }
+
+    /**
+     * @param node a node address
+     * @return a ring without the node
+     */
+    public HashRing without(String node) {
+        if (!nodes.contains(node)) return this;
+        Set<String> next = new TreeSet<>(nodes);
+        next.remove(node);
+        return new HashRing(next, virtualNodes);
+    }
+
+    public SortedSet<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    private static long hash(String node) {
+        // FNV-1a, then mixed, so similar addresses land far apart
+        long h = 0xcbf29ce484222325L;
+        for (byte b : node.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "HashRing" + nodes;
+    }
+}
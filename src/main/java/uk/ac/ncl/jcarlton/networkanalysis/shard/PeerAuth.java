@@ -0,0 +1,77 @@
+package uk.ac.ncl.jcarlton.networkanalysis.shard;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * The challenge and response by which the two ends of a shard
+ * connection prove they hold the shared secret, without sending
+ * it.
+ * <p>
+ * The client sends {@code HELLO <nonce>}; the node answers with
+ * a nonce of its own and an HMAC-SHA256 of the client's nonce.
+ * Once the client has checked it, it sends {@code AUTH} with an
+ * HMAC of the node's nonce. Each side signs under its own role,
+ * so a proof cannot be reflected back to the side that asked for
+ * it. This keeps out nodes and clients that do not know the
+ * secret; it does not protect a connection from someone on the
+ * path between the nodes, who should be kept out by the network.
+ */
+final class PeerAuth {
+
+    static final String HELLO = "HELLO";
+    static final String AUTH = "AUTH";
+
+    /**
+     * The roles a proof is signed under: a node answering a
+     * HELLO, and a peer answering the node's nonce.
+     */
+    static final String NODE = "node";
+    static final String PEER = "peer";
+
+    private static final int NONCE_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PeerAuth() {
+    }
+
+    /**
+     * @return a fresh random challenge
+     */
+    static String nonce() {
+        byte[] bytes = new byte[NONCE_BYTES];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @param secret the shared secret
+     * @param role   {@link #NODE} or {@link #PEER}
+     * @param nonce  the challenge being answered
+     * @return the proof
+     */
+    static String sign(String secret, String role, String nonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] proof = mac.doFinal((role + " " + nonce).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(proof);
+        } catch (GeneralSecurityException e) {
+            // every Java platform is required to support HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true if the proof answers the challenge under the role
+     */
+    static boolean verify(String secret, String role, String nonce, String proof) {
+        byte[] expected = sign(secret, role, nonce).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(expected, proof.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,286 @@
+package uk.ac.ncl.jcarlton.networkanalysis.shard;
+
+import uk.ac.ncl.jcarlton.networkanalysis.cli.BatchRunner;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Talks to {@link ShardServer}s over their line protocol, keeping
+ * idle connections open for reuse.
+ * <p>
+ * Used by the servers to forward requests to each other, and by
+ * callers to send each decision straight to the node that owns
+ * the requesting user. The client learns the membership from any
+ * node it is given and refreshes it when a node cannot be reached
+ * or the request lands on a node that no longer owns the user
+ * (which then forwards it, so the answer is still right).
+ * <p>
+ * A request is sent again, on a new connection or to a new owner,
+ * only if it could not be written at all. Once it has been sent
+ * the node may act on it, so a lost or late reply is a failure
+ * rather than a reason to ask twice.
+ * <p>
+ * Given the nodes' shared secret, the client proves it on each new
+ * connection and checks the node does too, see {@link PeerAuth};
+ * nodes only accept membership changes and forwarded decisions
+ * over such connections.
+ */
+public class ShardClient implements AutoCloseable {
+
+    private static final int MAX_IDLE_PER_NODE = 16;
+
+    private final int timeoutMillis;
+    private final String secret;
+    private final Map<String, BlockingQueue<Connection>> idle = new ConcurrentHashMap<>();
+    private final Set<String> seeds;
+    private volatile HashRing ring;
+
+    /**
+     * Object constructor.
+     *
+     * @param seeds         addresses of one or more nodes, e.g.
+     *                      {@code localhost:7001}
+     * @param timeoutMillis how long to wait on a connection or reply
+     */
+    public ShardClient(Collection<String> seeds, int timeoutMillis) {
+        this(seeds, timeoutMillis, null);
+    }
+
+    /**
+     * Object constructor.
+     *
+     * @param seeds         addresses of one or more nodes, e.g.
+     *                      {@code localhost:7001}
+     * @param timeoutMillis how long to wait on a connection or reply
+     * @param secret        the nodes' shared secret, or null to make
+     *                      unauthenticated requests only
+     */
+    public ShardClient(Collection<String> seeds, int timeoutMillis, String secret) {
+        this.seeds = new LinkedHashSet<>(seeds);
+        this.timeoutMillis = timeoutMillis;
+        this.secret = secret == null || secret.isEmpty() ? null : secret;
+        this.ring = new HashRing(seeds);
+    }
+
+    /**
+     * Thrown when a request could not be sent, so no node can have
+     * acted on it and it is safe to send again.
+     */
+    public static class NotSentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(String node, IOException cause) {
+            super("Could not send to " + node + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Ask the node that owns the requester for a decision.
+     *
+     * @param requester the user attempting to authenticate
+     * @return the decision and the API calls it took
+     * @throws IOException if no node could be reached or the
+     *                     decision failed
+     */
+    public BatchRunner.Result decide(long requester) throws IOException {
+        String node = ring.nodeFor(requester);
+        String reply;
+        try {
+            reply = send(node, ShardServer.DECIDE + " " + requester);
+        } catch (NotSentException e) {
+            // the node may have left, ask again of whichever now owns the user
+            refresh();
+            node = ring.nodeFor(requester);
+            reply = send(node, ShardServer.DECIDE + " " + requester);
+        }
+        return parseDecision(reply);
+    }
+
+    /**
+     * Fetch the current membership from the first node that answers.
+     *
+     * @return the ring now used for routing
+     * @throws IOException if no node answered
+     */
+    public HashRing refresh() throws IOException {
+        Set<String> candidates = new LinkedHashSet<>(ring.getNodes());
+        candidates.addAll(seeds);
+        IOException failure = null;
+        for (String node : candidates) {
+            try {
+                ring = new HashRing(parseMembers(send(node, ShardServer.PING)));
+                return ring;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new IOException("No shard nodes known");
+    }
+
+    /**
+     * Send one request line and wait for its reply line.
+     *
+     * @param node the node address
+     * @param line the request
+     * @return the reply
+     * @throws NotSentException if the node could not be reached, so
+     *                          the request was not sent
+     * @throws IOException      if the node did not reply in time, in
+     *                          which case it may still act on the request
+     */
+    public String send(String node, String line) throws IOException {
+        if (node == null) throw new IOException("No shard nodes known");
+        BlockingQueue<Connection> pool = idle.computeIfAbsent(node, n -> new LinkedBlockingQueue<>(MAX_IDLE_PER_NODE));
+
+        // an idle connection may have been closed by the other end, so if it cannot be written try a new one
+        Connection connection = pool.poll();
+        boolean reused = connection != null;
+        if (connection != null) {
+            try {
+                connection.write(line);
+            } catch (IOException e) {
+                connection.close();
+                connection = null;
+                reused = false;
+            }
+        }
+        if (connection == null) {
+            Connection opened = null;
+            try {
+                opened = new Connection(node, timeoutMillis, secret);
+                opened.write(line);
+            } catch (IOException e) {
+                if (opened != null) opened.close();
+                throw new NotSentException(node, e);
+            }
+            connection = opened;
+        }
+
+        // sent, so from here it is never sent again
+        try {
+            String reply = connection.read();
+            if (!pool.offer(connection)) connection.close();
+            return reply;
+        } catch (IOException e) {
+            connection.close();
+            // the node has gone away, so its other idle connections are of no use either
+            if (reused && e instanceof EOFException) forget(node);
+            throw e;
+        }
+    }
+
+    /**
+     * Close the idle connections to a node, e.g. after it left.
+     *
+     * @param node the node address
+     */
+    public void forget(String node) {
+        BlockingQueue<Connection> pool = idle.remove(node);
+        if (pool == null) return;
+        Connection c;
+        while ((c = pool.poll()) != null)
+            c.close();
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    @Override
+    public void close() {
+        for (String node : new ArrayList<>(idle.keySet()))
+            forget(node);
+    }
+
+    static BatchRunner.Result parseDecision(String reply) throws IOException {
+        String[] parts = reply.split(" ");
+        if (parts[0].equals(ShardServer.OK) && parts.length >= 3)
+            return new BatchRunner.Result(Boolean.parseBoolean(parts[1]), Integer.parseInt(parts[2]));
+        throw new IOException(reply.startsWith(ShardServer.ERR + " ") ? reply.substring(4) : "Unexpected reply: " + reply);
+    }
+
+    static List<String> parseMembers(String reply) throws IOException {
+        if (!reply.startsWith(ShardServer.MEMBERS + " "))
+            throw new IOException("Unexpected reply: " + reply);
+        return Arrays.asList(reply.substring(ShardServer.MEMBERS.length() + 1).split(","));
+    }
+
+    /**
+     * @param node a node address, {@code host:port}
+     * @return the socket address
+     */
+    static InetSocketAddress address(String node) {
+        int colon = node.lastIndexOf(':');
+        if (colon < 1)
+            throw new IllegalArgumentException("Expected host:port, not " + node);
+        return new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+    }
+
+    /**
+     * One open connection, used by one request at a time.
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        /**
+         * Connect, and if there is a secret prove it and check the
+         * node holds it too.
+         */
+        Connection(String node, int timeoutMillis, String secret) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address(node), timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                if (secret != null) authenticate(node, secret);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        private void authenticate(String node, String secret) throws IOException {
+            String nonce = PeerAuth.nonce();
+            write(PeerAuth.HELLO + " " + nonce);
+            String[] hello = read().split(" ");
+            if (hello.length < 3 || !hello[0].equals(PeerAuth.HELLO)
+                    || !PeerAuth.verify(secret, PeerAuth.NODE, nonce, hello[2]))
+                throw new IOException(node + " does not hold the shared secret");
+
+            write(PeerAuth.AUTH + " " + PeerAuth.sign(secret, PeerAuth.PEER, hello[1]));
+            String reply = read();
+            if (!reply.equals(ShardServer.OK))
+                throw new IOException(node + " refused the shared secret: " + reply);
+        }
+
+        void write(String line) throws IOException {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+
+        String read() throws IOException {
+            String reply = in.readLine();
+            if (reply == null) throw new EOFException("Connection closed");
+            return reply;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
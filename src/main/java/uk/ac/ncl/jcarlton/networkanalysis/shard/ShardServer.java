@@ -0,0 +1,469 @@
+package uk.ac.ncl.jcarlton.networkanalysis.shard;
+
+import uk.ac.ncl.jcarlton.networkanalysis.Decision;
+import uk.ac.ncl.jcarlton.networkanalysis.DecisionCache;
+import uk.ac.ncl.jcarlton.networkanalysis.cli.BatchRunner;
+import uk.ac.ncl.jcarlton.networkanalysis.stream.ActivityProfileStore;
+import uk.ac.ncl.jcarlton.networkanalysis.util.OffHeapIdSetStore;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One node of a sharded decision service. Requesting users are
+ * spread over the nodes by a {@link HashRing}, and each node
+ * makes the decisions, and holds the cached decisions, id sets
+ * and activity profiles, of its own shard only.
+ * <p>
+ * Nodes speak a line protocol over TCP, one request and one
+ * reply per line:
+ * <pre>
+ * DECIDE &lt;requester&gt; [LOCAL]  -&gt; OK &lt;true|false&gt; &lt;api calls&gt; &lt;node&gt; | ERR &lt;message&gt;
+ * PING                        -&gt; MEMBERS &lt;node&gt;,&lt;node&gt;,...
+ * JOIN &lt;node&gt;                 -&gt; MEMBERS &lt;node&gt;,&lt;node&gt;,...
+ * LEAVE &lt;node&gt;                -&gt; OK
+ * STATS                       -&gt; OK &lt;key=value&gt; ...
+ * HELLO &lt;nonce&gt;               -&gt; HELLO &lt;nonce&gt; &lt;proof&gt;
+ * AUTH &lt;proof&gt;                -&gt; OK | ERR &lt;message&gt;
+ * </pre>
+ * The node listens only on the address it was given as itself.
+ * {@code JOIN}, {@code LEAVE} and forwarded ({@code LOCAL})
+ * decisions change the membership or are answered as if from a
+ * trusted node, so they are only accepted over a connection that
+ * has proved the nodes' shared secret with {@code HELLO} and
+ * {@code AUTH}, see {@link PeerAuth}. Nodes prove it to each
+ * other the same way, so a forwarded answer comes from a node
+ * holding the secret. A node given no secret accepts none of
+ * these and runs alone.
+ * A decision asked of a node that does not own the requester is
+ * forwarded once to the owner (marked {@code LOCAL} so that nodes
+ * whose rings briefly disagree cannot bounce it back), and made
+ * locally if the owner cannot be reached.
+ * <p>
+ * A starting node announces itself with {@code JOIN} to the nodes
+ * it was given, and to every node they know of; a stopping node
+ * sends {@code LEAVE}. Every second each node pings the others,
+ * dropping a node that misses {@link #MAX_MISSED_PINGS} in a row,
+ * joining any node it learns of from the replies and joining again
+ * any node whose reply leaves it out. Whenever
+ * the ring changes the node drops the state of the users it no
+ * longer owns. Users it gains start cold and are filled in as
+ * they log in; their activity files are kept under the resource
+ * path, so nodes sharing it pick up where the last owner left off.
+ */
+public class ShardServer implements AutoCloseable {
+
+    static final String DECIDE = "DECIDE";
+    static final String LOCAL = "LOCAL";
+    static final String PING = "PING";
+    static final String JOIN = "JOIN";
+    static final String LEAVE = "LEAVE";
+    static final String STATS = "STATS";
+    static final String MEMBERS = "MEMBERS";
+    static final String OK = "OK";
+    static final String ERR = "ERR";
+
+    static final int MAX_MISSED_PINGS = 3;
+    private static final long PING_INTERVAL_MILLIS = 1000;
+    private static final int PING_TIMEOUT_MILLIS = 1000;
+
+    private final String self;
+    private final String secret;
+    private final BatchRunner.Decider decider;
+    private final List<Long> staticUsers;
+    private final DecisionCache cache;
+    private final OffHeapIdSetStore idSetStore;
+    private final ActivityProfileStore profileStore;
+
+    private final ShardClient peers;
+    private final ShardClient forwarder;
+    private final Map<String, Integer> missedPings = new ConcurrentHashMap<>();
+    private volatile HashRing ring;
+
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+    private ScheduledExecutorService heartbeat;
+
+    private final AtomicLong local = new AtomicLong();
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong failedForwards = new AtomicLong();
+    private final AtomicLong rebalances = new AtomicLong();
+
+    /**
+     * Builder for a node, whose node-local stores are also
+     * handed to each {@link Decision} made by the decider.
+     */
+    public static class Builder {
+        private final String self;
+        private final BatchRunner.Decider decider;
+        private final List<Long> staticUsers;
+        private DecisionCache cache = null;
+        private OffHeapIdSetStore idSetStore = null;
+        private ActivityProfileStore profileStore = null;
+        private int forwardTimeoutMillis = 60000;
+        private String secret = null;
+
+        /**
+         * @param self        this node's address, as the other nodes reach it
+         * @param decider     makes the decisions for this node's shard
+         * @param staticUsers the static users, the same on every node
+         */
+        public Builder(String self, BatchRunner.Decider decider, List<Long> staticUsers) {
+            this.self = self;
+            this.decider = decider;
+            this.staticUsers = staticUsers;
+        }
+
+        public Builder cache(DecisionCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public Builder idSetStore(OffHeapIdSetStore idSetStore) {
+            this.idSetStore = idSetStore;
+            return this;
+        }
+
+        public Builder profileStore(ActivityProfileStore profileStore) {
+            this.profileStore = profileStore;
+            return this;
+        }
+
+        public Builder forwardTimeoutMillis(int forwardTimeoutMillis) {
+            this.forwardTimeoutMillis = forwardTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * The secret shared by every node, without which a node
+         * cannot join the others.
+         */
+        public Builder secret(String secret) {
+            this.secret = secret;
+            return this;
+        }
+
+        public ShardServer build() {
+            return new ShardServer(this);
+        }
+    }
+
+    private ShardServer(Builder builder) {
+        ShardClient.address(builder.self);
+        this.self = builder.self;
+        this.secret = builder.secret == null || builder.secret.isEmpty() ? null : builder.secret;
+        this.decider = builder.decider;
+        this.staticUsers = builder.staticUsers;
+        this.cache = builder.cache;
+        this.idSetStore = builder.idSetStore;
+        this.profileStore = builder.profileStore;
+        this.ring = new HashRing(Collections.singleton(self));
+        this.peers = new ShardClient(Collections.emptyList(), PING_TIMEOUT_MILLIS, secret);
+        this.forwarder = new ShardClient(Collections.emptyList(), builder.forwardTimeoutMillis, secret);
+        if (profileStore != null)
+            profileStore.retainOnly(this::owns);
+    }
+
+    /**
+     * Start listening and join the nodes reachable from the seeds.
+     *
+     * @param seeds addresses of nodes already running, may be empty
+     * @throws IOException if the address could not be bound
+     */
+    public synchronized void start(Collection<String> seeds) throws IOException {
+        if (serverSocket != null) return;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        // only the interface the other nodes reach this one on
+        serverSocket.bind(ShardClient.address(self));
+
+        connections = Executors.newCachedThreadPool(daemon("shard-connection"));
+        connections.execute(this::accept);
+
+        for (String seed : seeds) {
+            if (!seed.equals(self)) join(seed);
+        }
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(daemon("shard-heartbeat"));
+        heartbeat.scheduleWithFixedDelay(this::pingPeers, PING_INTERVAL_MILLIS, PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tell the other nodes this one is leaving, then stop.
+     */
+    @Override
+    public synchronized void close() {
+        if (serverSocket == null) return;
+        heartbeat.shutdownNow();
+        for (String node : ring.getNodes()) {
+            if (node.equals(self)) continue;
+            try {
+                peers.send(node, LEAVE + " " + self);
+            } catch (IOException ignored) {
+                // it will notice the missed pings instead
+            }
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        connections.shutdownNow();
+        peers.close();
+        forwarder.close();
+        serverSocket = null;
+    }
+
+    /**
+     * @param requester a requesting user id
+     * @return true if this node serves the user
+     */
+    public boolean owns(long requester) {
+        return self.equals(ring.nodeFor(requester));
+    }
+
+    private void accept() {
+        ServerSocket server = serverSocket;
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                // closed
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            Session session = new Session();
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(handle(line.trim(), session));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // the other end went away
+        }
+    }
+
+    /**
+     * The state of one connection: whether it has proved the
+     * shared secret, and the challenge it was set to do so.
+     */
+    static final class Session {
+        private String nonce;
+        private boolean trusted;
+    }
+
+    /**
+     * @param line    one request
+     * @param session the connection it arrived on
+     * @return its reply
+     */
+    String handle(String line, Session session) {
+        String[] parts = line.split(" ");
+        try {
+            switch (parts[0]) {
+                case DECIDE:
+                    if (parts.length < 2) return ERR + " Expected DECIDE <requester>";
+                    boolean forceLocal = parts.length > 2 && parts[2].equals(LOCAL);
+                    if (forceLocal && !session.trusted) return ERR + " Not authenticated";
+                    return decide(Long.parseLong(parts[1]), forceLocal);
+                case PING:
+                    return members();
+                case JOIN:
+                    if (parts.length < 2) return ERR + " Expected JOIN <node>";
+                    if (!session.trusted) return ERR + " Not authenticated";
+                    ShardClient.address(parts[1]);
+                    addNode(parts[1]);
+                    return members();
+                case LEAVE:
+                    if (parts.length < 2) return ERR + " Expected LEAVE <node>";
+                    if (!session.trusted) return ERR + " Not authenticated";
+                    removeNode(parts[1]);
+                    return OK;
+                case PeerAuth.HELLO:
+                    if (parts.length < 2) return ERR + " Expected HELLO <nonce>";
+                    session.nonce = PeerAuth.nonce();
+                    return PeerAuth.HELLO + " " + session.nonce + " "
+                            + (secret == null ? "-" : PeerAuth.sign(secret, PeerAuth.NODE, parts[1]));
+                case PeerAuth.AUTH:
+                    if (parts.length < 2) return ERR + " Expected AUTH <proof>";
+                    String nonce = session.nonce;
+                    session.nonce = null;
+                    if (secret == null || nonce == null || !PeerAuth.verify(secret, PeerAuth.PEER, nonce, parts[1]))
+                        return ERR + " Authentication failed";
+                    session.trusted = true;
+                    return OK;
+                case STATS:
+                    return OK + " " + stats();
+                default:
+                    return ERR + " Unknown request " + parts[0];
+            }
+        } catch (IllegalArgumentException e) {
+            return ERR + " " + e.getMessage();
+        }
+    }
+
+    private String decide(long requester, boolean forceLocal) {
+        String owner = ring.nodeFor(requester);
+        if (!forceLocal && !self.equals(owner)) {
+            try {
+                String reply = forwarder.send(owner, DECIDE + " " + requester + " " + LOCAL);
+                forwarded.incrementAndGet();
+                return reply;
+            } catch (ShardClient.NotSentException e) {
+                // better a cold decision here than none at all
+                failedForwards.incrementAndGet();
+            } catch (IOException e) {
+                // the owner may still be deciding, so it is not decided again here
+                failedForwards.incrementAndGet();
+                return ERR + " No answer from " + owner + ": " + e.getMessage();
+            }
+        }
+
+        local.incrementAndGet();
+        try {
+            BatchRunner.Result result = decider.decide(requester, staticUsers);
+            if (result.getFailure() != null)
+                return ERR + " " + String.valueOf(result.getFailure()).replace('\n', ' ');
+            return OK + " " + result.getDecision() + " " + result.getApiCalls() + " " + self;
+        } catch (Exception e) {
+            return ERR + " " + String.valueOf(e).replace('\n', ' ');
+        }
+    }
+
+    private void join(String seed) {
+        try {
+            addNode(seed);
+            for (String node : ShardClient.parseMembers(peers.send(seed, JOIN + " " + self))) {
+                if (!ring.contains(node)) join(node);
+            }
+        } catch (IOException e) {
+            removeNode(seed);
+            System.err.println("Could not join " + seed + ": " + e.getMessage());
+        }
+    }
+
+    private void pingPeers() {
+        for (String node : ring.getNodes()) {
+            if (node.equals(self)) continue;
+            try {
+                List<String> members = ShardClient.parseMembers(peers.send(node, PING));
+                // a node that dropped this one, e.g. across a partition,
+                // is told of it again so the two rings converge
+                if (!members.contains(self))
+                    members = ShardClient.parseMembers(peers.send(node, JOIN + " " + self));
+                for (String member : members) {
+                    if (!ring.contains(member)) join(member);
+                }
+                missedPings.remove(node);
+            } catch (IOException e) {
+                if (missedPings.merge(node, 1, Integer::sum) >= MAX_MISSED_PINGS)
+                    removeNode(node);
+            }
+        }
+    }
+
+    private synchronized void addNode(String node) {
+        HashRing next = ring.with(node);
+        if (next != ring) rebalance(next);
+    }
+
+    private synchronized void removeNode(String node) {
+        if (node.equals(self)) return;
+        missedPings.remove(node);
+        peers.forget(node);
+        forwarder.forget(node);
+        HashRing next = ring.without(node);
+        if (next != ring) rebalance(next);
+    }
+
+    /**
+     * Switch to the new ring and drop the state of every user
+     * this node no longer owns.
+     */
+    private void rebalance(HashRing next) {
+        ring = next;
+        rebalances.incrementAndGet();
+        if (cache != null)
+            cache.invalidateIf(requester -> !owns(requester));
+        // a set still being read by a decision is only freed once that decision releases it
+        if (idSetStore != null)
+            idSetStore.releaseIf(key -> {
+                // keys are <name>_<user id>, see LinkAnalysisTwitter
+                String user = key.substring(key.lastIndexOf('_') + 1);
+                try {
+                    return !owns(Long.parseLong(user));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            });
+        if (profileStore != null)
+            profileStore.retainOnly(this::owns);
+        System.err.println(self + " now in " + next);
+    }
+
+    private String members() {
+        return MEMBERS + " " + String.join(",", ring.getNodes());
+    }
+
+    private String stats() {
+        return "node=" + self
+                + " members=" + ring.size()
+                + " local=" + local.get()
+                + " forwarded=" + forwarded.get()
+                + " failed_forwards=" + failedForwards.get()
+                + " rebalances=" + rebalances.get()
+                + " cached=" + (cache == null ? 0 : cache.size())
+                + " id_sets=" + (idSetStore == null ? 0 : idSetStore.size())
+                + " profiles=" + (profileStore == null ? 0 : profileStore.size());
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Getter methods for the node metrics
+     */
+
+    public String getSelf() {
+        return self;
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    public long getLocal() {
+        return local.get();
+    }
+
+    public long getForwarded() {
+        return forwarded.get();
+    }
+
+    public long getFailedForwards() {
+        return failedForwards.get();
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.ncl.jcarlton.networkanalysis.stream;
+
+import org.json.simple.JSONArray;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.TopicDetection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The activity of a single user since their last activity
+ * snapshot, kept current by an {@link ActivityStreamIngestor}.
+ * <p>
+ * A snapshot reads what has built up without changing it.
+ * Once the snapshot has been stored, {@link #drain(Snapshot)}
+ * removes what it covered and so starts a new period, in the
+ * same way that each stored activity entry covers the tweets
+ * posted since the last check. Anything added in between is
+ * kept for the next period, and a snapshot that is never
+ * stored (e.g. the write failed) is simply taken again.
+ */
+public class ActivityProfile {
+
+    private final long userId;
+    private List<String> timeline = new ArrayList<>();
+    private Map<String, Integer> topicCounts = new HashMap<>();
+    private long lastTweetId = 0;
+    private long lastUpdated = 0;
+
+    public ActivityProfile(long userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * Fold a classified tweet into the profile.
+     *
+     * @param event the tweet
+     * @param topic the label the tweet was classified as, or an
+     *              empty string if it could not be determined
+     */
+    public synchronized void add(TweetEvent event, String topic) {
+        timeline.add(event.getText());
+        if (!topic.isEmpty())
+            topicCounts.merge(topic, 1, Integer::sum);
+        lastTweetId = Math.max(lastTweetId, event.getTweetId());
+        lastUpdated = System.currentTimeMillis();
+    }
+
+    /**
+     * Read the activity built up since the last drained snapshot,
+     * leaving it in place.
+     *
+     * @return the activity of the current period
+     */
+    public synchronized Snapshot snapshot() {
+        Map<String, Integer> counts = new HashMap<>(topicCounts);
+        return new Snapshot(new ArrayList<>(timeline), counts, TopicDetection.countsToJSON(counts), lastTweetId);
+    }
+
+    /**
+     * Remove the activity a snapshot covered, once it has been
+     * stored, keeping anything added since it was taken.
+     *
+     * @param snapshot a snapshot of this profile
+     */
+    public synchronized void drain(Snapshot snapshot) {
+        timeline.subList(0, Math.min(snapshot.timeline.size(), timeline.size())).clear();
+        for (Map.Entry<String, Integer> m : snapshot.topicCounts.entrySet())
+            topicCounts.computeIfPresent(m.getKey(), (topic, count) -> count > m.getValue() ? count - m.getValue() : null);
+    }
+
+    /**
+     * @return true if no tweets have been added since the last
+     * drained snapshot
+     */
+    public synchronized boolean isEmpty() {
+        return timeline.isEmpty();
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public synchronized long getLastTweetId() {
+        return lastTweetId;
+    }
+
+    public synchronized long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    /**
+     * The activity of one period.
+     */
+    public static class Snapshot {
+        private final List<String> timeline;
+        private final Map<String, Integer> topicCounts;
+        private final JSONArray topicsPosted;
+        private final long lastTweetId;
+
+        private Snapshot(List<String> timeline, Map<String, Integer> topicCounts, JSONArray topicsPosted, long lastTweetId) {
+            this.timeline = timeline;
+            this.topicCounts = topicCounts;
+            this.topicsPosted = topicsPosted;
+            this.lastTweetId = lastTweetId;
+        }
+
+        public List<String> getTimeline() {
+            return timeline;
+        }
+
+        /**
+         * @return [{topic, frequency}, {topic, frequency}]
+         */
+        public JSONArray getTopicsPosted() {
+            return topicsPosted;
+        }
+
+        public long getLastTweetId() {
+            return lastTweetId;
+        }
+    }
+}
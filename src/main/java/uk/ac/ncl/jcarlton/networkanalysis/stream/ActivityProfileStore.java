@@ -0,0 +1,58 @@
+package uk.ac.ncl.jcarlton.networkanalysis.stream;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+
+/**
+ * The {@link ActivityProfile}s of every user seen on the
+ * activity stream, shared between the ingestor and the
+ * decisions that read them.
+ * <p>
+ * A store can be limited to some users with
+ * {@link #retainOnly(LongPredicate)}, e.g. the shard of users
+ * one node serves. Activity from any other user is then
+ * accepted but not kept.
+ */
+public class ActivityProfileStore {
+
+    private final Map<Long, ActivityProfile> profiles = new ConcurrentHashMap<>();
+    private volatile LongPredicate retained = userId -> true;
+
+    /**
+     * @param userId a user id
+     * @return the user's profile, or null if nothing has been
+     * seen from them
+     */
+    public ActivityProfile get(long userId) {
+        return profiles.get(userId);
+    }
+
+    /**
+     * @param userId a user id
+     * @return the user's profile, created if need be; for a user
+     * the store does not retain, a new profile that is not stored
+     */
+    public ActivityProfile getOrCreate(long userId) {
+        if (!retained.test(userId)) return new ActivityProfile(userId);
+        return profiles.computeIfAbsent(userId, ActivityProfile::new);
+    }
+
+    /**
+     * Keep only the profiles of the matching users, from now on
+     * and dropping those already held for anyone else.
+     *
+     * @param userIds matches the users to keep
+     * @return the number of profiles dropped
+     */
+    public int retainOnly(LongPredicate userIds) {
+        this.retained = userIds;
+        int before = profiles.size();
+        profiles.keySet().removeIf(id -> !userIds.test(id));
+        return before - profiles.size();
+    }
+
+    public int size() {
+        return profiles.size();
+    }
+}
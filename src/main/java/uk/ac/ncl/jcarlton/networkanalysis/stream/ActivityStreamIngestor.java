@@ -0,0 +1,185 @@
+package uk.ac.ncl.jcarlton.networkanalysis.stream;
+
+import org.json.simple.JSONArray;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.ClassifierClient;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.TopicDetection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep activity profiles current by consuming a stream of
+ * tweets, so that the work of classifying a user's timeline
+ * is done between logins rather than during one.
+ * <p>
+ * Tweets are pre-processed as they arrive and classified in
+ * batches of up to {@value #BATCH_SIZE} (the most Monkey Learn
+ * is sent in one request), then folded into the author's
+ * {@link ActivityProfile}. A partial batch is classified once
+ * it is {@code flushMillis} old or the stream ends. The age is
+ * checked by a timer, not by the next tweet, so a partial batch
+ * on a quiet stream is not held back until more tweets arrive.
+ */
+public class ActivityStreamIngestor implements Runnable {
+
+    static final int BATCH_SIZE = 20;
+
+    private final TweetSource source;
+    private final ActivityProfileStore store;
+    private final long flushMillis;
+
+    private volatile boolean running = false;
+    private Thread thread;
+    private long ingested = 0;
+
+    // the batch being built, shared with the flush timer
+    private final Object batchLock = new Object();
+    private List<TweetEvent> batch = new ArrayList<>();
+    private List<String> texts = new ArrayList<>();
+    private long batchGeneration = 0;
+
+    /**
+     * Object constructor.
+     *
+     * @param source      the stream of tweets
+     * @param store       where the profiles are kept
+     * @param flushMillis the longest a partial batch waits
+     */
+    public ActivityStreamIngestor(TweetSource source, ActivityProfileStore store, long flushMillis) {
+        this.source = source;
+        this.store = store;
+        this.flushMillis = flushMillis;
+    }
+
+    /**
+     * Start consuming the stream on a background thread.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+        running = true;
+        thread = new Thread(this, "activity-stream-ingestor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop consuming the stream and close it.
+     */
+    public synchronized void stop() {
+        running = false;
+        try {
+            source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Consume the stream on the calling thread until it ends
+     * or {@link #stop()} is called.
+     */
+    @Override
+    public void run() {
+        running = true;
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "activity-stream-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            TweetEvent event;
+            while (running && (event = source.next()) != null) {
+                String processed = TopicDetection.preprocess(event.getText());
+                if (processed == null) {
+                    // nothing left to classify, but it is still activity
+                    store.getOrCreate(event.getUserId()).add(event, "");
+                    continue;
+                }
+
+                synchronized (batchLock) {
+                    if (batch.isEmpty()) {
+                        // classify this batch when it is due, however quiet the stream goes
+                        long generation = ++batchGeneration;
+                        flusher.schedule(() -> flush(generation), flushMillis, TimeUnit.MILLISECONDS);
+                    }
+                    batch.add(event);
+                    texts.add(processed);
+                    if (batch.size() < BATCH_SIZE) continue;
+                }
+                flush(batchGeneration);
+            }
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        } finally {
+            flusher.shutdownNow();
+            flush(-1);
+            running = false;
+        }
+    }
+
+    /**
+     * Take the batch being built and classify it, on the calling
+     * thread. A timer passes the generation of the batch it was set
+     * for, and flushes nothing if that batch has already gone.
+     *
+     * @param generation the batch to flush, or -1 for any
+     */
+    private void flush(long generation) {
+        List<TweetEvent> taken;
+        List<String> takenTexts;
+        synchronized (batchLock) {
+            if (batch.isEmpty() || (generation >= 0 && generation != batchGeneration)) return;
+            taken = batch;
+            takenTexts = texts;
+            batch = new ArrayList<>();
+            texts = new ArrayList<>();
+        }
+        classify(taken, takenTexts);
+    }
+
+    /**
+     * Classify a batch of tweets and fold them into their
+     * author's profile. If the classifier gives no answer the
+     * tweets are still added, without topics, as the stream
+     * cannot be read again.
+     */
+    private void classify(List<TweetEvent> batch, List<String> texts) {
+        Map<String, JSONArray> response;
+        try {
+            response = new TopicDetection(texts).detectTopicsAll();
+        } catch (ClassifierClient.UnavailableException e) {
+            System.err.println("Batch of " + batch.size() + " tweets not classified: " + e.getMessage());
+            response = Collections.emptyMap();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            JSONArray classification = response.get(texts.get(i));
+            String topic = classification == null ? "" : TopicDetection.topLabel(classification);
+            store.getOrCreate(batch.get(i).getUserId()).add(batch.get(i), topic);
+        }
+        synchronized (this) {
+            ingested += batch.size();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of tweets classified so far
+     */
+    public synchronized long getIngested() {
+        return ingested;
+    }
+}
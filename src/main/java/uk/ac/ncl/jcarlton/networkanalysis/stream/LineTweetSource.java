@@ -0,0 +1,86 @@
+package uk.ac.ncl.jcarlton.networkanalysis.stream;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A {@link TweetSource} reading one JSON object per line, e.g.
+ * <pre>{@code {"user_id": 1234, "tweet_id": 5678, "text": "...", "created_at": 1472000000000}}</pre>
+ * <p>
+ * Stands in for a live Twitter stream; the lines can come
+ * from a file or from a socket that some other process writes
+ * to. Lines that cannot be parsed are reported and skipped.
+ */
+public class LineTweetSource implements TweetSource {
+
+    private final BufferedReader reader;
+    private final Closeable underlying;
+    private final JSONParser parser = new JSONParser();
+
+    /**
+     * Object constructor.
+     *
+     * @param reader the lines to read, closed with the source
+     */
+    public LineTweetSource(Reader reader) {
+        this(reader, reader);
+    }
+
+    private LineTweetSource(Reader reader, Closeable underlying) {
+        this.reader = new BufferedReader(reader);
+        this.underlying = underlying;
+    }
+
+    /**
+     * @param path a file of JSON lines
+     * @return a source reading the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static LineTweetSource fromFile(Path path) throws IOException {
+        return new LineTweetSource(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param host the host writing JSON lines
+     * @param port the port to connect to
+     * @return a source reading from the socket
+     * @throws IOException if the connection fails
+     */
+    public static LineTweetSource fromSocket(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        Reader reader = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+        return new LineTweetSource(reader, socket);
+    }
+
+    @Override
+    public TweetEvent next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            try {
+                JSONObject obj = (JSONObject) parser.parse(line);
+                return new TweetEvent(
+                        (Long) obj.get("user_id"),
+                        (Long) obj.get("tweet_id"),
+                        (String) obj.get("text"),
+                        (Long) obj.get("created_at"));
+            } catch (ParseException | ClassCastException | NullPointerException e) {
+                System.out.println("Skipping unreadable tweet line : " + line);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+        underlying.close();
+    }
+}
@@ -0,0 +1,44 @@
+package uk.ac.ncl.jcarlton.networkanalysis.stream;
+
+/**
+ * A single tweet taken from an activity stream.
+ */
+public class TweetEvent {
+
+    private final long userId;
+    private final long tweetId;
+    private final String text;
+    private final long createdAt;
+
+    /**
+     * Object constructor.
+     *
+     * @param userId    the author of the tweet
+     * @param tweetId   the id of the tweet
+     * @param text      the text of the tweet
+     * @param createdAt when the tweet was posted, in milliseconds
+     *                  since the epoch
+     */
+    public TweetEvent(long userId, long tweetId, String text, long createdAt) {
+        this.userId = userId;
+        this.tweetId = tweetId;
+        this.text = text;
+        this.createdAt = createdAt;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getTweetId() {
+        return tweetId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
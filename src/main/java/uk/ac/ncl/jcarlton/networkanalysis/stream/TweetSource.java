@@ -0,0 +1,21 @@
+package uk.ac.ncl.jcarlton.networkanalysis.stream;
+
+import java.io.IOException;
+
+/**
+ * A feed of tweets to be folded into activity profiles,
+ * see {@link ActivityStreamIngestor}.
+ */
+public interface TweetSource extends AutoCloseable {
+
+    /**
+     * Fetch the next tweet, blocking until one is available.
+     *
+     * @return the next tweet, or null once the feed has ended
+     * @throws IOException if the feed cannot be read
+     */
+    TweetEvent next() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
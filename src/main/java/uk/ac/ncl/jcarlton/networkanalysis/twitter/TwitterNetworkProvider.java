@@ -0,0 +1,148 @@
+package uk.ac.ncl.jcarlton.networkanalysis.twitter;
+
+import twitter4j.*;
+import uk.ac.ncl.jcarlton.networkanalysis.analysis.TweetRecords;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.IdPage;
+import uk.ac.ncl.jcarlton.networkanalysis.provider.SocialNetworkProvider;
+import uk.ac.ncl.jcarlton.networkanalysis.util.SingleFlight;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A {@link SocialNetworkProvider} that makes each call through
+ * an authenticated Twitter4j instance.
+ * <p>
+ * Identical calls made at the same time through the same Twitter4j
+ * instance are coalesced by a {@link SingleFlight}, keyed by the
+ * endpoint, user and cursor (or page and {@code since_id}), so a
+ * burst of logins for one user, or of checks against one static
+ * user, makes each call once. The flights are shared by every
+ * provider, so decisions that each wrap the same instance still
+ * coalesce.
+ */
+public class TwitterNetworkProvider implements SocialNetworkProvider {
+
+    private static final SingleFlight<Key, Long> LOOKUPS = new SingleFlight<>();
+    private static final SingleFlight<Key, IdPage> ID_PAGES = new SingleFlight<>();
+    private static final SingleFlight<Key, TweetRecords> STATUS_PAGES = new SingleFlight<>();
+
+    private final Twitter twitterInstance;
+
+    /**
+     * @param twitterInstance pre-authenticated instance of the Twitter4j
+     *                        Twitter API.
+     */
+    public TwitterNetworkProvider(Twitter twitterInstance) {
+        this.twitterInstance = twitterInstance;
+    }
+
+    @Override
+    public long lookupUserId(String screenName) throws TwitterException {
+        return LOOKUPS.execute(new Key(twitterInstance, "users/show", screenName, 0, 0, 0, 0),
+                () -> twitterInstance.showUser(screenName).getId());
+    }
+
+    @Override
+    public IdPage getFollowersIDs(long userId, long cursor) throws TwitterException {
+        return ID_PAGES.execute(new Key(twitterInstance, "followers/ids", null, userId, cursor, 0, 0), () -> {
+            IDs ids = twitterInstance.getFollowersIDs(userId, cursor);
+            return new IdPage(ids.getIDs(), ids.getNextCursor());
+        });
+    }
+
+    @Override
+    public IdPage getFriendsIDs(long userId, long cursor) throws TwitterException {
+        return ID_PAGES.execute(new Key(twitterInstance, "friends/ids", null, userId, cursor, 0, 0), () -> {
+            IDs ids = twitterInstance.getFriendsIDs(userId, cursor);
+            return new IdPage(ids.getIDs(), ids.getNextCursor());
+        });
+    }
+
+    @Override
+    public TweetRecords getUserTimeline(long userId, int page, int count, long sinceId) throws TwitterException {
+        return STATUS_PAGES.execute(new Key(twitterInstance, "statuses/user_timeline", null, userId, page, count, sinceId),
+                () -> project(twitterInstance.getUserTimeline(userId, paging(page, count, sinceId))));
+    }
+
+    @Override
+    public TweetRecords getFavourites(long userId, int page, int count, long sinceId) throws TwitterException {
+        return STATUS_PAGES.execute(new Key(twitterInstance, "favorites/list", null, userId, page, count, sinceId),
+                () -> project(twitterInstance.getFavorites(userId, paging(page, count, sinceId))));
+    }
+
+    private static Paging paging(int page, int count, long sinceId) {
+        Paging paging = new Paging(page, count);
+        if (sinceId > 0)
+            paging.setSinceId(sinceId);
+        return paging;
+    }
+
+    /**
+     * Project the statuses into columns as soon as they arrive,
+     * nothing else of them is kept.
+     */
+    private static TweetRecords project(List<Status> statuses) {
+        TweetRecords records = new TweetRecords(statuses.size());
+        for (Status s : statuses)
+            records.add(s);
+        return records;
+    }
+
+    public Twitter getTwitterInstance() {
+        return twitterInstance;
+    }
+
+    /**
+     * @return the calls, across every provider, answered by waiting
+     * on an identical call rather than making their own
+     */
+    public static long getCoalesced() {
+        return LOOKUPS.getShared() + ID_PAGES.getShared() + STATUS_PAGES.getShared();
+    }
+
+    /**
+     * Identifies a call: the instance it is made through (compared
+     * by identity, as instances may be authenticated as different
+     * accounts), the endpoint and its arguments.
+     */
+    private static final class Key {
+        private final Twitter twitter;
+        private final String endpoint;
+        private final String name;
+        private final long user;
+        private final long position;
+        private final int count;
+        private final long sinceId;
+
+        Key(Twitter twitter, String endpoint, String name, long user, long position, int count, long sinceId) {
+            this.twitter = twitter;
+            this.endpoint = endpoint;
+            this.name = name;
+            this.user = user;
+            this.position = position;
+            this.count = count;
+            this.sinceId = sinceId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return twitter == k.twitter && user == k.user && position == k.position && count == k.count && sinceId == k.sinceId
+                    && endpoint.equals(k.endpoint) && Objects.equals(name, k.name);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = System.identityHashCode(twitter);
+            h = 31 * h + endpoint.hashCode();
+            h = 31 * h + Objects.hashCode(name);
+            h = 31 * h + Long.hashCode(user);
+            h = 31 * h + Long.hashCode(position);
+            h = 31 * h + count;
+            return 31 * h + Long.hashCode(sinceId);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A user's activity history stored as a sequence of
+ * independently compressed blocks, rather than one JSON
+ * object rewritten on every check.
+ * <p>
+ * Each block holds one or more activity entries, serialized
+ * as a JSON object and deflated with a preset dictionary of
+ * the keys every entry repeats, so even a block of a single
+ * entry compresses well. Appending a check writes one new
+ * block at the end of the file; nothing before it is read or
+ * rewritten.
+ * <p>
+ * Reading is streamed a block at a time. The block headers
+ * carry their lengths, so {@link #readLatest(int)} seeks past
+ * the older blocks and inflates only those it needs.
+ * <p>
+ * Layout: a magic int and version byte, then for each block
+ * the compressed length, uncompressed length and entry count
+ * (ints) followed by the deflated bytes. The dictionary is
+ * part of the format; changing it needs a new version.
+ */
+public class ActivityLog {
+
+    static final int MAGIC = 0x4e414c47; // NALG
+    static final byte VERSION = 1;
+    private static final int FILE_HEADER = 5;
+    private static final int BLOCK_HEADER = 12;
+
+    /**
+     * The entries packed into each block by {@link #writeAll(Map, int)}
+     * when not told otherwise.
+     */
+    public static final int DEFAULT_BLOCK_ENTRIES = 32;
+
+    /**
+     * The prefix of every entry key, followed by the date of the
+     * check in {@link #KEY_DATE} form.
+     */
+    public static final String KEY_PREFIX = "activity_";
+    private static final DateTimeFormatter KEY_DATE = DateTimeFormatter.ofPattern("dd-MM-yyyy-HH:mm:ss");
+
+    /**
+     * Orders entry keys by the date they carry, oldest first. The
+     * date leads with the day of the month, so the keys cannot be
+     * compared as text. Keys without a date sort first, by text.
+     */
+    public static final Comparator<String> BY_DATE =
+            Comparator.comparingLong(ActivityLog::timeOf).thenComparing(Comparator.naturalOrder());
+
+    private static final byte[] DICTIONARY = ("\"static_users_interacted_with\":[" +
+            "\"tweets_liked\":[\"topics_liked\":[{\"tweet_id\":\"creator_id\":\"tweet_topic_label\":\"" +
+            "\"method\":\"favourite\",\"tweet_created\":" +
+            "\"user_id\":\"current_date\":\"\"last_checked\":\"\"timeline_since_last_checked\":[\"" +
+            "{\"topic\":\"\",\"frequency\":\"topics_posted\":[{\"frequency\":\"activity_")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final File file;
+
+    /**
+     * @param file the file holding the history, which need not exist yet
+     */
+    public ActivityLog(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * @param key an entry key, e.g. activity_01-01-2017-10:00:00
+     * @return the time of the check, in milliseconds since the
+     * epoch, or {@link Long#MIN_VALUE} if the key holds no date
+     */
+    public static long timeOf(String key) {
+        if (key == null || !key.startsWith(KEY_PREFIX)) return Long.MIN_VALUE;
+        try {
+            // written with the local time zone
+            return LocalDateTime.parse(key.substring(KEY_PREFIX.length()), KEY_DATE)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Append one activity entry as a new block.
+     *
+     * @param key   the entry key, e.g. activity_01-01-2017-10:00:00
+     * @param entry the activity
+     * @throws IOException if the file could not be written
+     */
+    public void append(String key, JSONObject entry) throws IOException {
+        JSONObject block = new JSONObject();
+        block.put(key, entry);
+
+        boolean created = !file.exists() || file.length() == 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            if (created) writeFileHeader(out);
+            writeBlock(out, block, 1);
+        }
+    }
+
+    /**
+     * Replace the file with the given entries, packed into blocks
+     * oldest first (see {@link #BY_DATE}), so that
+     * {@link #readLatest(int)} finds the newest in the last blocks.
+     * The file is written alongside and moved into place, so a
+     * reader never sees it half written.
+     *
+     * @param entries        the entries, in any order
+     * @param entriesPerBlock the most entries in one block
+     * @throws IOException if the file could not be written
+     */
+    public void writeAll(Map<?, ?> entries, int entriesPerBlock) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            writeFileHeader(out);
+            List<Map.Entry<?, ?>> sorted = new ArrayList<>(entries.entrySet());
+            sorted.sort(Comparator.comparing((Map.Entry<?, ?> m) -> String.valueOf(m.getKey()), BY_DATE));
+
+            JSONObject block = new JSONObject();
+            for (Map.Entry<?, ?> m : sorted) {
+                block.put(m.getKey(), m.getValue());
+                if (block.size() == entriesPerBlock) {
+                    writeBlock(out, block, block.size());
+                    block = new JSONObject();
+                }
+            }
+            if (!block.isEmpty()) writeBlock(out, block, block.size());
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return every entry in the history
+     * @throws IOException if the file could not be read
+     */
+    public JSONObject readAll() throws IOException {
+        JSONObject result = new JSONObject();
+        forEachBlock(0, result::putAll);
+        return result;
+    }
+
+    /**
+     * Read the most recently appended entries, inflating only
+     * the blocks that hold them.
+     * <p>
+     * Blocks are read whole, so when the oldest block needed
+     * holds more entries than are wanted, the extra (older)
+     * entries in it are returned too.
+     *
+     * @param count the number of entries wanted
+     * @return at least that many of the latest entries, or all
+     * of them if there are fewer
+     * @throws IOException if the file could not be read
+     */
+    public JSONObject readLatest(int count) throws IOException {
+        List<long[]> headers = scan();
+
+        // walk back from the newest block until enough entries are covered
+        int first = headers.size();
+        int covered = 0;
+        while (first > 0 && covered < count)
+            covered += (int) headers.get(--first)[2];
+
+        JSONObject result = new JSONObject();
+        if (first < headers.size())
+            forEachBlock(headers.get(first)[0], result::putAll);
+        return result;
+    }
+
+    /**
+     * Decode the blocks one at a time, from the given offset to
+     * the end of the file. Only one block is held in memory at
+     * once.
+     *
+     * @param offset   the offset of a block, or 0 for the first
+     * @param consumer receives the entries of each block
+     * @throws IOException if the file could not be read
+     */
+    public void forEachBlock(long offset, BlockConsumer consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            readFileHeader(in);
+            skipFully(in, Math.max(0, offset - FILE_HEADER));
+
+            JSONParser parser = new JSONParser();
+            Inflater inflater = new Inflater();
+            try {
+                int compressedLength;
+                while ((compressedLength = readBlockLength(in)) >= 0) {
+                    int length = in.readInt();
+                    in.readInt(); // entry count
+
+                    byte[] compressed = new byte[compressedLength];
+                    in.readFully(compressed);
+                    consumer.accept((JSONObject) parser.parse(inflate(inflater, compressed, length)));
+                }
+            } catch (ParseException | DataFormatException e) {
+                throw new IOException("Corrupt activity block in " + file, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Receives the entries of one block.
+     */
+    public interface BlockConsumer {
+        void accept(JSONObject entries) throws IOException;
+    }
+
+    /**
+     * Read the block headers only, seeking past the data.
+     *
+     * @return offset, compressed length and entry count of each block
+     */
+    List<long[]> scan() throws IOException {
+        List<long[]> result = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BLOCK_HEADER))) {
+            readFileHeader(in);
+            long offset = FILE_HEADER;
+            int compressedLength;
+            while ((compressedLength = readBlockLength(in)) >= 0) {
+                in.readInt();
+                int entries = in.readInt();
+                result.add(new long[] {offset, compressedLength, entries});
+                skipFully(in, compressedLength);
+                offset += BLOCK_HEADER + compressedLength;
+            }
+        }
+        return result;
+    }
+
+    private static void writeFileHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    private void readFileHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readByte() != VERSION)
+            throw new IOException("Not an activity log: " + file);
+    }
+
+    private static void writeBlock(DataOutputStream out, JSONObject block, int entries) throws IOException {
+        byte[] raw = block.toJSONString().getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(raw);
+            deflater.finish();
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished())
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+
+            out.writeInt(compressed.size());
+            out.writeInt(raw.length);
+            out.writeInt(entries);
+            compressed.writeTo(out);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String inflate(Inflater inflater, byte[] compressed, int length) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] raw = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = inflater.inflate(raw, read, length - read);
+            if (n == 0 && inflater.needsDictionary())
+                inflater.setDictionary(DICTIONARY);
+            else if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                throw new DataFormatException("Block ended early");
+            read += n;
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the compressed length of the next block, or -1 at the end
+     */
+    private static int readBlockLength(DataInputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) return -1;
+        return (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+    }
+
+    private static void skipFully(DataInputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) throw new EOFException();
+            n -= skipped;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+/**
+ * A blocked Bloom filter over user ids.
+ * <p>
+ * Each id is hashed to one 512 bit block (a single cache line)
+ * and sets {@value #HASHES} bits within it, so a lookup touches
+ * one cache line rather than {@value #HASHES} scattered ones.
+ * A negative answer is always right; a positive answer has to be
+ * checked against the exact set.
+ */
+public class BloomFilter {
+
+    private static final int HASHES = 4;
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int BITS_PER_ID = 12;
+
+    private final long[] words;
+    private final int blocks;
+
+    /**
+     * Object constructor.
+     *
+     * @param expectedIds the number of ids that will be added
+     */
+    public BloomFilter(int expectedIds) {
+        long bits = Math.max(1, (long) expectedIds) * BITS_PER_ID;
+        this.blocks = (int) Math.max(1, (bits + 511) / 512);
+        this.words = new long[blocks * WORDS_PER_BLOCK];
+    }
+
+    /**
+     * Build a filter holding the given ids.
+     *
+     * @param ids the ids to add
+     * @return the filter
+     */
+    public static BloomFilter of(long[] ids) {
+        BloomFilter filter = new BloomFilter(ids.length);
+        for (long id : ids) filter.add(id);
+        return filter;
+    }
+
+    /**
+     * @param id the id to add
+     */
+    public void add(long id) {
+        long hash = mix(id);
+        int base = block(hash) * WORDS_PER_BLOCK;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (int) (hash >>> (i * 9)) & 511;
+            words[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param id the id to look for
+     * @return false if the id was definitely not added, true
+     * if it may have been
+     */
+    public boolean mightContain(long id) {
+        long hash = mix(id);
+        int base = block(hash) * WORDS_PER_BLOCK;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (int) (hash >>> (i * 9)) & 511;
+            if ((words[base + (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private int block(long hash) {
+        // the top bits pick the block, the low bits the bits within it
+        return (int) (((hash >>> 40) * blocks) >>> 24);
+    }
+
+    /**
+     * The 64 bit finalizer from MurmurHash3.
+     */
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+}
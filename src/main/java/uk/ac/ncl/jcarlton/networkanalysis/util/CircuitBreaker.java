@@ -0,0 +1,91 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+/**
+ * Stop calling a service that keeps failing, so callers fail
+ * fast (and can fall back) instead of waiting on timeouts.
+ * <p>
+ * The breaker opens after a run of consecutive failures. While
+ * open every request is refused until the cool-down has passed;
+ * it then lets a single trial request through (half open). The
+ * trial closing or reopening the breaker decides what happens
+ * next.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long coolDownMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean trialInFlight = false;
+    private long timesOpened = 0;
+
+    /**
+     * @param failureThreshold consecutive failures that open the breaker
+     * @param coolDownMillis   how long it stays open before a trial
+     */
+    public CircuitBreaker(int failureThreshold, long coolDownMillis) {
+        this.failureThreshold = failureThreshold;
+        this.coolDownMillis = coolDownMillis;
+    }
+
+    /**
+     * Ask to make a request. A caller given permission must
+     * report the outcome with {@link #recordSuccess()} or
+     * {@link #recordFailure()}.
+     *
+     * @return true if the request may be made
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < coolDownMillis) return false;
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default:
+                // only one trial at a time
+                if (trialInFlight) return false;
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) timesOpened++;
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return true if requests are currently being refused
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.currentTimeMillis() - openedAt < coolDownMillis;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+}
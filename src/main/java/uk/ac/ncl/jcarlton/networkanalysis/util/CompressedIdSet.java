@@ -0,0 +1,171 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An {@link IdSet} held as blocks of delta encoded varints.
+ * <p>
+ * The sorted ids are split into blocks of {@value #BLOCK_SIZE}.
+ * The first id of each block is kept in a skip index and the
+ * rest are stored as the (variable length) difference from the
+ * id before, so dense id ranges take one or two bytes per id
+ * rather than eight. A lookup binary searches the skip index and
+ * then decodes a single block.
+ */
+public class CompressedIdSet implements IdSet {
+
+    static final int BLOCK_SIZE = 128;
+
+    private final int size;
+    private final long[] blockFirst;
+    private final int[] blockOffset;
+    private final byte[] data;
+
+    private CompressedIdSet(int size, long[] blockFirst, int[] blockOffset, byte[] data) {
+        this.size = size;
+        this.blockFirst = blockFirst;
+        this.blockOffset = blockOffset;
+        this.data = data;
+    }
+
+    /**
+     * Compress the given ids. The array may be in any order and
+     * contain duplicates; it is not modified.
+     *
+     * @param ids the ids to hold
+     * @return the compressed set
+     */
+    public static CompressedIdSet of(long[] ids) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        return ofSorted(sorted, sorted.length);
+    }
+
+    /**
+     * Compress ids that are already sorted in ascending order.
+     *
+     * @param sorted the sorted ids, duplicates are dropped
+     * @param length the number of ids to use from the array
+     * @return the compressed set
+     */
+    public static CompressedIdSet ofSorted(long[] sorted, int length) {
+        int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] blockFirst = new long[blocks];
+        int[] blockOffset = new int[blocks + 1];
+        byte[] data = new byte[Math.max(16, length * 2)];
+
+        int size = 0;
+        int position = 0;
+        long previous = 0;
+        for (int i = 0; i < length; i++) {
+            long id = sorted[i];
+            if (size > 0 && id == previous) continue;
+
+            if (size % BLOCK_SIZE == 0) {
+                // start a new block, its first id goes in the skip index
+                blockFirst[size / BLOCK_SIZE] = id;
+                blockOffset[size / BLOCK_SIZE] = position;
+            } else {
+                if (position + 10 > data.length)
+                    data = Arrays.copyOf(data, data.length * 2);
+                position = writeVarint(data, position, id - previous);
+            }
+            previous = id;
+            size++;
+        }
+
+        int usedBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockOffset[usedBlocks] = position;
+        return new CompressedIdSet(size,
+                Arrays.copyOf(blockFirst, usedBlocks),
+                Arrays.copyOf(blockOffset, usedBlocks + 1),
+                Arrays.copyOf(data, position));
+    }
+
+    @Override
+    public boolean contains(long id) {
+        int block = Arrays.binarySearch(blockFirst, id);
+        if (block >= 0) return true;
+
+        block = -block - 2;
+        if (block < 0) return false;
+
+        long current = blockFirst[block];
+        int position = blockOffset[block];
+        int end = blockOffset[block + 1];
+        while (position < end) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                delta |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            current += delta;
+            if (current == id) return true;
+            if (current > id) return false;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int index = 0;
+            private int position = 0;
+            private long current;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) throw new NoSuchElementException();
+
+                if (index % BLOCK_SIZE == 0) {
+                    current = blockFirst[index / BLOCK_SIZE];
+                    position = blockOffset[index / BLOCK_SIZE];
+                } else {
+                    long delta = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = data[position++];
+                        delta |= (long) (b & 0x7f) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    current += delta;
+                }
+                index++;
+                return current;
+            }
+        };
+    }
+
+    /**
+     * @return the number of bytes used to hold the ids
+     */
+    public long getCompressedBytes() {
+        return data.length + blockFirst.length * 8L + blockOffset.length * 4L;
+    }
+
+    private static int writeVarint(byte[] data, int position, long value) {
+        while ((value & ~0x7fL) != 0) {
+            data[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+}
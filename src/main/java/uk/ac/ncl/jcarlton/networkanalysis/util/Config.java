@@ -0,0 +1,218 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * An immutable snapshot of the configuration: the API
+ * credentials, the resource path and any tuning properties.
+ * <p>
+ * The snapshot is loaded once, on first use, and shared; the
+ * hot path only ever reads a field. {@link #reload()} (called
+ * by a {@link ConfigWatcher} when the files change) builds a
+ * new snapshot and swaps it in atomically, so a reader sees
+ * either the old configuration or the new one, never a mix.
+ * <p>
+ * The files are read from the classpath as before:
+ * {@code /access-codes/<name>} for credentials (one token per
+ * line), {@code /RESOURCE_PATH} and, optionally,
+ * {@code /network-analysis.properties}. Setting the system
+ * property {@value #DIRECTORY_PROPERTY} reads them from that
+ * directory instead.
+ */
+public final class Config {
+
+    public static final String DIRECTORY_PROPERTY = "networkanalysis.config";
+
+    static final String ACCESS_CODES = "access-codes";
+    static final String RESOURCE_PATH = "RESOURCE_PATH";
+    static final String PROPERTIES = "network-analysis.properties";
+
+    /**
+     * The credential files loaded into each snapshot.
+     */
+    private static final List<String> TOKEN_FILES = Arrays.asList("twitter", "monkeylearn");
+
+    private static volatile Config current;
+
+    private final Map<String, String[]> tokens;
+    private final String resourcePath;
+    private final Properties properties;
+    private final long loaded;
+
+    private Config(Map<String, String[]> tokens, String resourcePath, Properties properties) {
+        this.tokens = tokens;
+        this.resourcePath = resourcePath;
+        this.properties = properties;
+        this.loaded = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the current snapshot, loading it on first use
+     */
+    public static Config current() {
+        Config config = current;
+        if (config == null) {
+            synchronized (Config.class) {
+                if (current == null)
+                    current = load();
+                config = current;
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Load the files again and replace the current snapshot.
+     *
+     * @return the new snapshot
+     */
+    public static synchronized Config reload() {
+        current = load();
+        return current;
+    }
+
+    private static Config load() {
+        Map<String, String[]> tokens = new HashMap<>();
+        for (String name : TOKEN_FILES) {
+            List<String> lines = readLines(ACCESS_CODES + "/" + name);
+            if (lines != null)
+                tokens.put(name, lines.toArray(new String[0]));
+        }
+
+        List<String> pathLines = readLines(RESOURCE_PATH);
+        String resourcePath = pathLines == null || pathLines.isEmpty() ? null : relativize(pathLines.get(0));
+
+        Properties properties = new Properties();
+        try (InputStream in = open(PROPERTIES)) {
+            if (in != null) properties.load(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new Config(Collections.unmodifiableMap(tokens), resourcePath, properties);
+    }
+
+    /**
+     * @return the path relative to the working directory
+     */
+    private static String relativize(String path) {
+        URI rootURI = new File("").toURI();
+        URI resourceURI = new File(path).toURI();
+        return rootURI.relativize(resourceURI).getPath();
+    }
+
+    private static List<String> readLines(String name) {
+        try (InputStream in = open(name)) {
+            if (in == null) return null;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null)
+                lines.add(line);
+            return lines;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static InputStream open(String name) throws IOException {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory != null) {
+            Path file = Paths.get(directory, name);
+            return Files.exists(file) ? Files.newInputStream(file) : null;
+        }
+        return Config.class.getResourceAsStream("/" + name);
+    }
+
+    /**
+     * The directories the files are read from, where they are on
+     * the file system (not inside a jar) and so can be watched.
+     *
+     * @return the directories
+     */
+    static Set<Path> directories() {
+        Set<Path> result = new LinkedHashSet<>();
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory != null) {
+            Path root = Paths.get(directory);
+            result.add(root);
+            result.add(root.resolve(ACCESS_CODES));
+        } else {
+            addDirectory(result, Config.class.getResource("/" + RESOURCE_PATH));
+            addDirectory(result, Config.class.getResource("/" + ACCESS_CODES + "/"));
+        }
+        result.removeIf(p -> !Files.isDirectory(p));
+        return result;
+    }
+
+    private static void addDirectory(Set<Path> result, URL url) {
+        if (url == null || !"file".equals(url.getProtocol())) return;
+        try {
+            Path path = Paths.get(url.toURI());
+            result.add(Files.isDirectory(path) ? path : path.getParent());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Fetch the tokens of one API.
+     *
+     * @param name    name of the API, e.g. twitter
+     * @param arrSize number of expected tokens
+     * @return a new array of the tokens, null where missing
+     */
+    public String[] getTokens(String name, int arrSize) {
+        String[] stored = tokens.get(name);
+        String[] result = new String[arrSize];
+        if (stored != null)
+            System.arraycopy(stored, 0, result, 0, Math.min(arrSize, stored.length));
+        return result;
+    }
+
+    /**
+     * @return the resource path relative to the working directory,
+     * or null if it is not configured
+     */
+    public String getResourcePath() {
+        return resourcePath;
+    }
+
+    public String getProperty(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * @return when this snapshot was loaded
+     */
+    public long getLoaded() {
+        return loaded;
+    }
+}
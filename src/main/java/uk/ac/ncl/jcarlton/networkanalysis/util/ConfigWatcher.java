@@ -0,0 +1,79 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watch the configuration files and {@link Config#reload()}
+ * the snapshot when any of them change, so credentials and
+ * settings can be updated without a restart.
+ * <p>
+ * Editors often write a file in several steps, so changes are
+ * gathered for {@value #SETTLE_MILLIS}ms before reloading once.
+ * Files inside a jar cannot be watched and are ignored.
+ */
+public class ConfigWatcher implements AutoCloseable {
+
+    static final long SETTLE_MILLIS = 200;
+
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Start watching on a background thread.
+     *
+     * @throws IOException if the directories could not be watched
+     */
+    public ConfigWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        Set<Path> directories = Config.directories();
+        for (Path directory : directories)
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+        this.thread = new Thread(this::watch, "config-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (running) {
+                WatchKey key = watchService.take();
+                boolean changed = drain(key);
+
+                // let the rest of the write land before reloading
+                Thread.sleep(SETTLE_MILLIS);
+                while ((key = watchService.poll()) != null)
+                    changed |= drain(key);
+
+                if (changed) Config.reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private static boolean drain(WatchKey key) {
+        boolean changed = !key.pollEvents().isEmpty();
+        key.reset();
+        return changed;
+    }
+
+    public boolean isRunning() {
+        return running && thread.isAlive();
+    }
+
+    /**
+     * Stop watching.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        thread.interrupt();
+        watchService.close();
+    }
+}
@@ -0,0 +1,153 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persist the id of the newest tweet that has been processed
+ * for each user and feed, so that the next run only needs to
+ * fetch tweets newer than it.
+ * <p>
+ * Each mark is kept in its own small file under the stored
+ * activity, named by a key such as {@code 1234_timeline}, so
+ * reading or raising one mark touches nothing else. Updates to
+ * a key are serialised by one of a fixed set of striped locks;
+ * different users rarely share one.
+ * <p>
+ * Marks written by earlier versions to the single
+ * {@code high_water_marks.json} file are still read, for any
+ * key that has no file of its own yet.
+ */
+public class HighWaterMarkStore {
+
+    private static final String DIRECTORY = "high_water_marks";
+    private static final String LEGACY_FILE_NAME = "high_water_marks";
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++)
+            LOCKS[i] = new Object();
+    }
+
+    private static volatile JSONObject legacy;
+
+    private Utility utility;
+
+    public HighWaterMarkStore() {
+        this.utility = new Utility();
+    }
+
+    /**
+     * Build the key for a user and feed.
+     *
+     * @param user the user id or username
+     * @param feed the name of the feed, e.g. timeline
+     * @return the key
+     */
+    public static String key(String user, String feed) {
+        return user + "_" + feed;
+    }
+
+    /**
+     * Fetch the high water mark for the given key.
+     *
+     * @param key built by {@link #key(String, String)}
+     * @return the id of the newest processed tweet, or 0 if
+     * nothing has been processed yet
+     */
+    public long get(String key) {
+        synchronized (lock(key)) {
+            return read(key);
+        }
+    }
+
+    /**
+     * Raise the high water mark for the given key. A mark is
+     * never moved backwards.
+     *
+     * @param key built by {@link #key(String, String)}
+     * @param id  the id of the newest processed tweet
+     */
+    public void update(String key, long id) {
+        synchronized (lock(key)) {
+            if (read(key) >= id) return;
+            try {
+                write(key, id);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static Object lock(String key) {
+        return LOCKS[Math.floorMod(key.hashCode(), LOCKS.length)];
+    }
+
+    private long read(String key) {
+        File file = getFile(key);
+        if (file == null) return 0;
+        if (!file.exists()) return readLegacy(key);
+
+        try {
+            String value = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+            return value.isEmpty() ? 0 : Long.parseLong(value);
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private void write(String key, long id) throws IOException {
+        File file = getFile(key);
+        if (file == null) throw new IOException("Cannot read resource path");
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+
+        // write then move, so a reader never sees a half written mark
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), Long.toString(id).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the mark held for the key in the single file written
+     * by earlier versions, read once, or 0 if there is none
+     */
+    private long readLegacy(String key) {
+        JSONObject marks = legacy;
+        if (marks == null) {
+            synchronized (HighWaterMarkStore.class) {
+                if ((marks = legacy) == null)
+                    legacy = marks = loadLegacy();
+            }
+        }
+        Object value = marks.get(key);
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    private JSONObject loadLegacy() {
+        String resourcePath = utility.getResourcePath();
+        File file = resourcePath == null ? null : new File(resourcePath + "/json/" + LEGACY_FILE_NAME + ".json");
+        if (file == null || !file.exists()) return new JSONObject();
+
+        try (Reader reader = new FileReader(file)) {
+            return (JSONObject) new JSONParser().parse(reader);
+        } catch (IOException | ParseException e) {
+            e.printStackTrace();
+            return new JSONObject();
+        }
+    }
+
+    private File getFile(String key) {
+        String resourcePath = utility.getResourcePath();
+        if (resourcePath == null) return null;
+        return new File(resourcePath + "/json/" + DIRECTORY + "/" + key);
+    }
+}
@@ -0,0 +1,47 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+
+/**
+ * A read-only set of user ids, such as the followers of
+ * an account.
+ * <p>
+ * Implementations hold the ids in sorted order in a compact
+ * form and never box them, so large follower lists can be
+ * kept and probed cheaply.
+ */
+public interface IdSet {
+
+    /**
+     * @param id a user id
+     * @return true if the id is in the set
+     */
+    boolean contains(long id);
+
+    /**
+     * @return the number of ids in the set
+     */
+    int size();
+
+    /**
+     * @return the ids in ascending order
+     */
+    PrimitiveIterator.OfLong iterator();
+
+    /**
+     * Find which of the given ids are in the set, e.g. which of
+     * the static users follow an account.
+     *
+     * @param ids the ids to look for
+     * @return the ids that are in the set, in the order given
+     */
+    default long[] intersect(long[] ids) {
+        long[] result = new long[ids.length];
+        int size = 0;
+        for (long id : ids) {
+            if (contains(id)) result[size++] = id;
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
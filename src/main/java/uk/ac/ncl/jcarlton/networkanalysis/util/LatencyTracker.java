@@ -0,0 +1,55 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.util.Arrays;
+
+/**
+ * Keep the most recent latencies of a call, to derive timeouts
+ * and hedging delays from what the service is doing now rather
+ * than from fixed guesses.
+ * <p>
+ * Samples are kept in a fixed ring, so the percentiles follow
+ * changes in the service within a window's worth of calls.
+ */
+public class LatencyTracker {
+
+    private final long[] samples;
+    private int next = 0;
+    private long count = 0;
+
+    /**
+     * @param window the number of recent samples kept
+     */
+    public LatencyTracker(int window) {
+        this.samples = new long[window];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count++;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the latency at the percentile over the window, in
+     * nanoseconds, or -1 if nothing has been recorded
+     */
+    public long percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) return -1;
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.min(Math.max(rank, 1), sorted.length) - 1];
+    }
+
+    /**
+     * @return the number of samples recorded, including those
+     * no longer in the window
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+}
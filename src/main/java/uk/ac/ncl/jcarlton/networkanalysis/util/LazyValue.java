@@ -0,0 +1,69 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A value that is loaded on first use and then kept for
+ * the lifetime of the object.
+ * <p>
+ * The loader runs at most once, either on the first
+ * thread to call {@link #get()} or on an executor passed
+ * to {@link #prefetch(Executor)}. Any other caller waits
+ * for that single load to finish. A failed load is kept
+ * as well, so it is reported to every caller rather than
+ * being retried.
+ *
+ * @param <T> the type of the loaded value
+ */
+public class LazyValue<T> {
+
+    private final FutureTask<T> task;
+
+    /**
+     * Object constructor.
+     *
+     * @param loader the call that produces the value
+     */
+    public LazyValue(Callable<T> loader) {
+        this.task = new FutureTask<>(loader);
+    }
+
+    /**
+     * Fetch the value, loading it on the calling thread if
+     * no other thread has started to.
+     *
+     * @return the loaded value
+     * @throws ExecutionException wrapping whatever the loader threw
+     */
+    public T get() throws ExecutionException {
+        // a no-op if the task has already been run or is running elsewhere
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * Hint that the value will be needed soon, starting the
+     * load on the given executor.
+     *
+     * @param executor where the load should run
+     */
+    public void prefetch(Executor executor) {
+        if (!task.isDone())
+            executor.execute(task);
+    }
+
+    /**
+     * @return true if the value (or its failure) is available
+     */
+    public boolean isLoaded() {
+        return task.isDone();
+    }
+}
@@ -0,0 +1,102 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.util.Collection;
+
+/**
+ * A set of longs using open addressing over a primitive
+ * array, so membership checks neither box nor chase pointers.
+ * <p>
+ * Intended for small, read-mostly sets such as the static
+ * users, which are checked once for every tweet or id seen.
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] slots;
+    private int mask;
+    private int size = 0;
+    private boolean containsEmpty = false;
+
+    /**
+     * Object constructor.
+     *
+     * @param expectedSize the number of values that will be added
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.slots = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param values the values to add
+     * @return a set holding the values
+     */
+    public static LongHashSet of(Collection<Long> values) {
+        LongHashSet set = new LongHashSet(values.size());
+        for (long v : values) set.add(v);
+        return set;
+    }
+
+    /**
+     * @param value the value to add
+     * @return true if it was not already in the set
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) return false;
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+
+        int i = slot(value);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) return false;
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        size++;
+
+        // keep the table at most half full
+        if (size * 2 > slots.length) grow();
+        return true;
+    }
+
+    /**
+     * @param value the value to look for
+     * @return true if the value is in the set
+     */
+    public boolean contains(long value) {
+        if (value == EMPTY) return containsEmpty;
+
+        int i = slot(value);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        mask = slots.length - 1;
+        for (long v : old) {
+            if (v == EMPTY) continue;
+            int i = slot(v);
+            while (slots[i] != EMPTY) i = (i + 1) & mask;
+            slots[i] = v;
+        }
+    }
+}
@@ -18,13 +18,9 @@ public class MapSorter {
     public static <K, V extends Comparable<? super V>> Map<K, V> valueAscending(Map<K, V> map) {
         if (map.isEmpty()) return map;
 
-        List<Map.Entry<K, V>> list = new LinkedList<>(map.entrySet());
-        Collections.sort(list, (o1, o2) -> (o1.getValue()).compareTo(o2.getValue()));
-
-        Map<K, V> result = new LinkedHashMap<>();
-        for (Map.Entry<K, V> m : list)
-            result.put(m.getKey(), m.getValue());
-        return result;
+        Map.Entry<K, V>[] entries = toArray(map);
+        Arrays.sort(entries, (o1, o2) -> (o1.getValue()).compareTo(o2.getValue()));
+        return toMap(entries, entries.length);
     }
 
     /**
@@ -38,13 +34,9 @@ public class MapSorter {
     public static <K, V extends Comparable<? super V>> Map<K, V> valueDescending(Map<K, V> map) {
         if (map.isEmpty()) return map;
 
-        List<Map.Entry<K, V>> list = new LinkedList<>(map.entrySet());
-        Collections.sort(list, (o1, o2) -> (o2.getValue()).compareTo(o1.getValue()));
-
-        Map<K, V> result = new LinkedHashMap<>();
-        for (Map.Entry<K, V> m : list)
-            result.put(m.getKey(), m.getValue());
-        return result;
+        Map.Entry<K, V>[] entries = toArray(map);
+        Arrays.sort(entries, (o1, o2) -> (o2.getValue()).compareTo(o1.getValue()));
+        return toMap(entries, entries.length);
     }
 
     /**
@@ -58,13 +50,9 @@ public class MapSorter {
     public static <K, V extends Comparable<? super V>> Map<K, V> keyDescending(Map<K, V> map) {
         if (map.isEmpty()) return map;
 
-        List<Map.Entry<K, V>> list = new LinkedList<>(map.entrySet());
-        Collections.sort(list, (o1, o2) -> (o1.toString()).compareTo(o2.toString()));
-
-        Map<K, V> result = new LinkedHashMap<>();
-        for (Map.Entry<K, V> m : list)
-            result.put(m.getKey(), m.getValue());
-        return result;
+        Map.Entry<K, V>[] entries = toArray(map);
+        Arrays.sort(entries, (o1, o2) -> (o1.toString()).compareTo(o2.toString()));
+        return toMap(entries, entries.length);
     }
 
     /**
@@ -79,4 +67,155 @@ public class MapSorter {
         if (map.isEmpty()) return map;
         return new TreeMap<K, V>(map);
     }
-}
\ No newline at end of file
+
+    /**
+     * Select the k entries with the highest values, using a bounded
+     * heap so that only k entries are ever held at once.
+     *
+     * @param map to select from
+     * @param k   the number of entries to keep
+     * @param <K> generic key type
+     * @param <V> generic value type
+     * @return the top k entries, by their values in descending order
+     */
+    public static <K, V extends Comparable<? super V>> Map<K, V> topValues(Map<K, V> map, int k) {
+        if (map.isEmpty() || k <= 0) return new LinkedHashMap<>();
+
+        Comparator<Map.Entry<K, V>> ascending = (o1, o2) -> (o1.getValue()).compareTo(o2.getValue());
+        PriorityQueue<Map.Entry<K, V>> heap = new PriorityQueue<>(Math.min(k, map.size()), ascending);
+        for (Map.Entry<K, V> m : map.entrySet()) {
+            if (heap.size() < k)
+                heap.add(m);
+            else if (ascending.compare(m, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(m);
+            }
+        }
+
+        Map.Entry<K, V>[] entries = heap.toArray(newEntryArray(heap.size()));
+        Arrays.sort(entries, ascending.reversed());
+        return toMap(entries, entries.length);
+    }
+
+    /**
+     * Sort a map of int values in descending order without boxing
+     * during the sort.
+     * <p>
+     * Each value is packed together with the position of its key into
+     * a single long so the sort runs over a primitive array. Equal
+     * values keep the iteration order of the given map.
+     *
+     * @param map to be sorted
+     * @param <K> generic key type
+     * @return sorted map, by its values in descending order
+     */
+    public static <K> Map<K, Integer> intValueDescending(Map<K, Integer> map) {
+        if (map.isEmpty()) return map;
+
+        Object[] keys = new Object[map.size()];
+        long[] packed = pack(map, keys);
+        Arrays.sort(packed);
+        return unpackDescending(packed, packed.length, keys);
+    }
+
+    /**
+     * Select the k entries with the highest int values, using a
+     * bounded primitive heap. Runs in O(n log k) and allocates only
+     * the key array and a heap of k longs.
+     *
+     * @param map to select from
+     * @param k   the number of entries to keep
+     * @param <K> generic key type
+     * @return the top k entries, by their values in descending order
+     */
+    public static <K> Map<K, Integer> topIntValues(Map<K, Integer> map, int k) {
+        if (map.isEmpty() || k <= 0) return new LinkedHashMap<>();
+
+        Object[] keys = new Object[map.size()];
+        long[] packed = pack(map, keys);
+
+        long[] heap = new long[Math.min(k, packed.length)];
+        int size = 0;
+        for (long p : packed) {
+            if (size < heap.length) {
+                heap[size] = p;
+                siftUp(heap, size++);
+            } else if (p > heap[0]) {
+                heap[0] = p;
+                siftDown(heap, 0, size);
+            }
+        }
+
+        Arrays.sort(heap, 0, size);
+        return unpackDescending(heap, size, keys);
+    }
+
+    /**
+     * Pack each value into the high 32 bits of a long and the
+     * (inverted) iteration position of its key into the low bits,
+     * so that ordering the longs orders by value and then by
+     * position.
+     */
+    private static <K> long[] pack(Map<K, Integer> map, Object[] keys) {
+        long[] packed = new long[keys.length];
+        int i = 0;
+        for (Map.Entry<K, Integer> m : map.entrySet()) {
+            keys[i] = m.getKey();
+            packed[i] = ((long) m.getValue() << 32) | (Integer.MAX_VALUE - i);
+            i++;
+        }
+        return packed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> Map<K, Integer> unpackDescending(long[] packed, int length, Object[] keys) {
+        Map<K, Integer> result = new LinkedHashMap<>();
+        for (int i = length - 1; i >= 0; i--) {
+            int index = Integer.MAX_VALUE - (int) packed[i];
+            result.put((K) keys[index], (int) (packed[i] >> 32));
+        }
+        return result;
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long value = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= value) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+    }
+
+    private static void siftDown(long[] heap, int i, int size) {
+        long value = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (value <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+
+    private static <K, V> Map.Entry<K, V>[] toArray(Map<K, V> map) {
+        return map.entrySet().toArray(newEntryArray(map.size()));
+    }
+
+    private static <K, V> Map.Entry<K, V>[] newEntryArray(int size) {
+        // generic arrays cannot be created directly; the raw array only ever holds Entry<K, V>
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map.Entry<K, V>[] entries = (Map.Entry<K, V>[]) new Map.Entry[size];
+        return entries;
+    }
+
+    private static <K, V> Map<K, V> toMap(Map.Entry<K, V>[] entries, int length) {
+        Map<K, V> result = new LinkedHashMap<>();
+        for (int i = 0; i < length; i++)
+            result.put(entries[i].getKey(), entries[i].getValue());
+        return result;
+    }
+}
@@ -0,0 +1,133 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link IdSet} whose sorted ids live in a direct
+ * {@link ByteBuffer}, outside of the Java heap.
+ * <p>
+ * Lookups binary search the buffer in place, so nothing is
+ * copied back onto the heap. Sets are created and accounted
+ * for by an {@link OffHeapIdSetStore}, which counts the
+ * references to each: one for the store itself and one for
+ * each reader that has taken the set. The set is released
+ * once the last of them is given back; any further use then
+ * throws an {@link IllegalStateException}.
+ */
+public class OffHeapIdSet implements IdSet {
+
+    private final LongBuffer ids;
+    private final long bytes;
+    private final long created;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean released = false;
+
+    OffHeapIdSet(IdSet source) {
+        long size = (long) source.size() * Long.BYTES;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many ids for one buffer: " + source.size());
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size)
+                .order(ByteOrder.nativeOrder());
+        PrimitiveIterator.OfLong it = source.iterator();
+        while (it.hasNext())
+            buffer.putLong(it.nextLong());
+        buffer.flip();
+
+        this.ids = buffer.asLongBuffer();
+        this.bytes = buffer.capacity();
+        this.created = System.currentTimeMillis();
+    }
+
+    @Override
+    public boolean contains(long id) {
+        checkNotReleased();
+        int low = 0;
+        int high = ids.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = ids.get(mid);
+            if (value < id) low = mid + 1;
+            else if (value > id) high = mid - 1;
+            else return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return ids.limit();
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        checkNotReleased();
+        return new PrimitiveIterator.OfLong() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < ids.limit();
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) throw new NoSuchElementException();
+                checkNotReleased();
+                return ids.get(index++);
+            }
+        };
+    }
+
+    /**
+     * @return the number of off-heap bytes held by the set
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return when the set was created, in milliseconds since the epoch
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Take a reference to the set.
+     *
+     * @return false if the set has already been released
+     */
+    boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) return false;
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Give back a reference, releasing the set if it was the last.
+     *
+     * @return true if this call released it
+     */
+    boolean release() {
+        if (references.decrementAndGet() != 0) return false;
+        released = true;
+        return true;
+    }
+
+    private void checkNotReleased() {
+        if (released)
+            throw new IllegalStateException("Off-heap id set has been released");
+    }
+}
@@ -0,0 +1,194 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * A keyed store of {@link OffHeapIdSet}s, used to cache the
+ * follower and friend ids of large accounts without keeping
+ * multi-gigabyte arrays on the Java heap.
+ * <p>
+ * The store accounts for every byte it allocates, and refuses
+ * new sets once its capacity would be exceeded. Sets stay in the
+ * store until they are replaced or released.
+ * <p>
+ * A set is read by taking it with {@link #acquire(String)} (or
+ * {@link #put(String, IdSet)}) and giving it back with
+ * {@link #release(OffHeapIdSet)} once done. A set replaced or
+ * released from the store while a reader holds it stays usable
+ * by that reader, and is only freed, and its bytes accounted
+ * as returned, once the last reader gives it back. Its memory
+ * is returned when the buffer is collected.
+ */
+public class OffHeapIdSetStore implements AutoCloseable {
+
+    private final long capacity;
+    private final Map<String, OffHeapIdSet> sets = new ConcurrentHashMap<>();
+    private final AtomicLong bytesInUse = new AtomicLong();
+
+    /**
+     * Object constructor.
+     *
+     * @param capacity the most off-heap bytes the store may hold
+     */
+    public OffHeapIdSetStore(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Copy a set off the heap and store it, unless a set is
+     * already stored under the key, in which case the first one
+     * stored wins and is used instead.
+     *
+     * @param key the key, e.g. {@code followers_1234}
+     * @param ids the ids to store
+     * @return the stored set, taken for the caller to give back
+     * with {@link #release(OffHeapIdSet)}, or null if it would
+     * not fit
+     */
+    public OffHeapIdSet put(String key, IdSet ids) {
+        OffHeapIdSet existing = acquire(key);
+        if (existing != null) return existing;
+
+        OffHeapIdSet set = allocate(ids);
+        if (set == null) return null;
+        set.retain();
+
+        while (true) {
+            OffHeapIdSet previous = sets.putIfAbsent(key, set);
+            if (previous == null) return set;
+            if (previous.retain()) {
+                // lost the race, drop both references to the new set
+                free(set);
+                free(set);
+                return previous;
+            }
+            // the previous set is on its way out, take its place
+            if (sets.replace(key, previous, set)) return set;
+        }
+    }
+
+    /**
+     * Copy a set off the heap and store it in place of any set
+     * previously stored under the key. The previous set is freed
+     * once every reader holding it has given it back.
+     *
+     * @param key the key, e.g. {@code followers_1234}
+     * @param ids the ids to store
+     * @return false if it would not fit, leaving any previous set
+     */
+    public boolean replace(String key, IdSet ids) {
+        OffHeapIdSet set = allocate(ids);
+        if (set == null) return false;
+
+        OffHeapIdSet previous = sets.put(key, set);
+        if (previous != null) free(previous);
+        return true;
+    }
+
+    /**
+     * Take the set stored under the key, to be given back with
+     * {@link #release(OffHeapIdSet)} once done.
+     *
+     * @param key the key the set was stored under
+     * @return the stored set, or null if there is none
+     */
+    public OffHeapIdSet acquire(String key) {
+        while (true) {
+            OffHeapIdSet set = sets.get(key);
+            if (set == null) return null;
+            if (set.retain()) return set;
+            // released between the lookup and the retain, so no longer in the map
+            sets.remove(key, set);
+        }
+    }
+
+    /**
+     * Give back a set taken with {@link #acquire(String)} or
+     * {@link #put(String, IdSet)}, freeing it if it has since
+     * left the store and this was the last reader.
+     *
+     * @param set the set
+     */
+    public void release(OffHeapIdSet set) {
+        free(set);
+    }
+
+    private OffHeapIdSet allocate(IdSet ids) {
+        long needed = (long) ids.size() * Long.BYTES;
+        // more than one direct buffer can hold
+        if (needed > Integer.MAX_VALUE) return null;
+        long used;
+        do {
+            used = bytesInUse.get();
+            if (used + needed > capacity) return null;
+        } while (!bytesInUse.compareAndSet(used, used + needed));
+
+        try {
+            return new OffHeapIdSet(ids);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            bytesInUse.addAndGet(-needed);
+            return null;
+        }
+    }
+
+    /**
+     * Remove and release the set stored under the key. It is
+     * freed once every reader holding it has given it back.
+     *
+     * @param key the key the set was stored under
+     */
+    public void release(String key) {
+        OffHeapIdSet set = sets.remove(key);
+        if (set != null) free(set);
+    }
+
+    /**
+     * Remove and release every set whose key matches. Each is
+     * freed once every reader holding it has given it back.
+     *
+     * @param keys matches the keys of the sets to release
+     * @return the number of sets released
+     */
+    public int releaseIf(Predicate<String> keys) {
+        int released = 0;
+        for (String key : sets.keySet()) {
+            if (keys.test(key)) {
+                release(key);
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Release every set in the store.
+     */
+    @Override
+    public void close() {
+        for (String key : sets.keySet())
+            release(key);
+    }
+
+    /**
+     * @return the number of off-heap bytes currently held
+     */
+    public long getBytesInUse() {
+        return bytesInUse.get();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return sets.size();
+    }
+
+    private void free(OffHeapIdSet set) {
+        if (set.release())
+            bytesInUse.addAndGet(-set.getBytes());
+    }
+}
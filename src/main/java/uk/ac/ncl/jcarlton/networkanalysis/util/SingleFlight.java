@@ -0,0 +1,136 @@
+package uk.ac.ncl.jcarlton.networkanalysis.util;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesce identical calls made at the same time, so that only
+ * one of them reaches the API.
+ * <p>
+ * The first caller for a key makes the call on its own thread;
+ * anyone asking for the same key while it is in flight waits for
+ * and shares its result, or its error. Nothing is kept once the
+ * call returns, so a later caller makes a fresh call. Results are
+ * handed to every waiting caller, so they must not be modified.
+ * <p>
+ * If the first caller is interrupted (e.g. a speculative page it
+ * no longer wants is cancelled) the callers waiting on it make
+ * the call again themselves rather than sharing the interruption.
+ *
+ * @param <K> the type of the key, e.g. the endpoint, user and cursor
+ * @param <V> the type of the result
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * A call that may throw a checked exception.
+     */
+    public interface Call<V, E extends Exception> {
+        V call() throws E;
+    }
+
+    /**
+     * Completes a flight whose caller was interrupted.
+     */
+    private static final class Abandoned extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Abandoned() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Abandoned ABANDONED = new Abandoned();
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Make the call, or wait for the identical call in flight.
+     *
+     * @param key  identifies the call
+     * @param call makes the call
+     * @param <E>  the checked exception the call throws
+     * @return the result
+     * @throws E from the call, whichever caller made it
+     */
+    public <E extends Exception> V execute(K key, Call<V, E> call) throws E {
+        while (true) {
+            CompletableFuture<V> flight = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null)
+                return lead(key, flight, call);
+
+            shared.incrementAndGet();
+            try {
+                return this.<E>await(existing);
+            } catch (Abandoned e) {
+                // try again, either joining a newer flight or leading one
+            }
+        }
+    }
+
+    private <E extends Exception> V lead(K key, CompletableFuture<V> flight, Call<V, E> call) throws E {
+        executed.incrementAndGet();
+        try {
+            V value = call.call();
+            flight.complete(value);
+            return value;
+        } catch (Throwable t) {
+            flight.completeExceptionally(interrupted(t) ? ABANDONED : t);
+            throw t;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> V await(CompletableFuture<V> flight) throws E {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            // every caller of a key makes the same call, so it throws the same checked type
+            throw (E) cause;
+        }
+    }
+
+    private static boolean interrupted(Throwable t) {
+        if (Thread.currentThread().isInterrupted()) return true;
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof InterruptedException) return true;
+            // a timeout is a real answer, shared like any other error
+            if (c instanceof InterruptedIOException && !(c instanceof SocketTimeoutException)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of calls in flight now
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return the calls actually made
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * @return the calls answered by waiting on another
+     */
+    public long getShared() {
+        return shared.get();
+    }
+}
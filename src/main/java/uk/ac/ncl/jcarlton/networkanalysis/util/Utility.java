@@ -3,16 +3,14 @@ package uk.ac.ncl.jcarlton.networkanalysis.util;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import uk.ac.ncl.jcarlton.networkanalysis.event.JSONReadEvent;
+import uk.ac.ncl.jcarlton.networkanalysis.event.JSONWriteEvent;
 
 import java.io.*;
-import java.net.URI;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Utility class that provides handy methods that
@@ -24,11 +22,20 @@ import java.util.Scanner;
  */
 public class Utility {
 
+    /**
+     * When true in the {@link Config} properties, new activity
+     * histories are written compressed, see {@link ActivityLog}.
+     */
+    public static final String COMPRESSION_PROPERTY = "activity.compression";
+    public static final String ACTIVITY_LOG_EXTENSION = ".jsonz";
+
     public Utility(){}
 
     /**
      * Fetch the access codes for the various api's that are
      * being used throughout the project.
+     * <p>
+     * The tokens are read once into the shared {@link Config}.
      *
      * @param fileName      name of the API
      * @param arrSize       number of expected tokens
@@ -36,23 +43,7 @@ public class Utility {
      *                      request API tokens
      */
     public String[] getTokens(String fileName, int arrSize) {
-        String[] result = new String[arrSize];
-
-        File file = new File(getClass().getResource("/access-codes/" + fileName).getFile());
-
-        int i = 0;
-        try (Scanner scanner = new Scanner(file)) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                result[i] = line;
-                i++;
-            }
-            scanner.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-
-        return result;
+        return Config.current().getTokens(fileName, arrSize);
     }
 
     /**
@@ -79,15 +70,37 @@ public class Utility {
     public JSONObject readInJSON(String fileName) throws IOException {
         String resourcePath = getResourcePath();
         if (resourcePath != null) {
+            ActivityLog log = activityLog(resourcePath, fileName);
+            if (log.exists()) {
+                JSONReadEvent event = new JSONReadEvent();
+                event.begin();
+                JSONObject result = log.readAll();
+                event.end();
+                if (event.shouldCommit()) {
+                    event.fileName = fileName;
+                    event.bytesRead = log.getFile().length();
+                    event.commit();
+                }
+                return result;
+            }
+
             File file = new File(resourcePath + "/json/" + fileName + ".json");
             if (file.exists()) {
                 JSONObject result = null;
+                JSONReadEvent event = new JSONReadEvent();
+                event.begin();
                 try {
                     JSONParser parser = new JSONParser();
                     result = (JSONObject) parser.parse(new FileReader(file));
                 } catch (IOException | ParseException e) {
                     e.printStackTrace();
                 }
+                event.end();
+                if (event.shouldCommit()) {
+                    event.fileName = fileName;
+                    event.bytesRead = file.length();
+                    event.commit();
+                }
                 return result;
             } else {
                 throw new IOException("File doesn't exist");
@@ -97,6 +110,24 @@ public class Utility {
         }
     }
 
+    /**
+     * Read only the latest entries of a compressed activity
+     * history, see {@link ActivityLog#readLatest(int)}. Plain
+     * JSON files are read whole.
+     *
+     * @param fileName the name of the file, without its extension
+     * @param count    the number of entries wanted
+     * @return at least the latest count entries
+     */
+    public JSONObject readLatestJSON(String fileName, int count) throws IOException {
+        String resourcePath = getResourcePath();
+        if (resourcePath != null) {
+            ActivityLog log = activityLog(resourcePath, fileName);
+            if (log.exists()) return log.readLatest(count);
+        }
+        return readInJSON(fileName);
+    }
+
     /**
      *
      *
@@ -106,25 +137,33 @@ public class Utility {
     public void writeJSON(JSONObject jsonObject, String fileName) throws IOException {
         String resourcePath = getResourcePath();
         if (resourcePath != null) {
+            if (activityLog(resourcePath, fileName).exists() || Config.current().getBoolean(COMPRESSION_PROPERTY, false)) {
+                appendJSON(jsonObject, fileName);
+                return;
+            }
+
             File file = new File(resourcePath + "/json/" + fileName + ".json");
             String date = new SimpleDateFormat("dd-MM-yyyy-HH:mm:ss").format(Calendar.getInstance().getTime());
-            try {
-                FileWriter writer;
-                if (!file.createNewFile()) {
-                    JSONObject previous = readInJSON(fileName);
-                    previous.put("activity_" + date, jsonObject);
-                    writer = new FileWriter(file);
-                    writer.write(previous.toJSONString());
-                } else {
-                    writer = new FileWriter(file);
-                    JSONObject first = new JSONObject();
-                    first.put("activity_" + date, jsonObject);
-                    writer.write(first.toJSONString());
-                }
-                writer.flush();
-                writer.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            JSONWriteEvent event = new JSONWriteEvent();
+            event.begin();
+
+            // a failed write is passed on, so the caller does not treat the entry as stored
+            JSONObject history;
+            if (!file.createNewFile()) {
+                history = readInJSON(fileName);
+                if (history == null) throw new IOException("Cannot read " + file);
+            } else {
+                history = new JSONObject();
+            }
+            history.put(ActivityLog.KEY_PREFIX + date, jsonObject);
+            try (FileWriter writer = new FileWriter(file)) {
+                writer.write(history.toJSONString());
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.fileName = fileName;
+                event.fileBytes = file.length();
+                event.commit();
             }
         } else {
             throw new IOException("Error in fetching resource path");
@@ -132,21 +171,52 @@ public class Utility {
     }
 
     /**
-     * @return
+     * Append an activity entry to the compressed history, whatever
+     * the {@value #COMPRESSION_PROPERTY} setting, so that only the
+     * new entry is written rather than the whole history. A plain
+     * JSON history is moved across first, once, so it is not split
+     * over two files.
+     *
+     * @param jsonObject the activity entry
+     * @param fileName   the name of the file, without its extension
      */
-    private String getResourcePath() {
-        try {
-            URI pathFile = System.class.getResource("/RESOURCE_PATH").toURI();
-            String resourcePath = Files.readAllLines(Paths.get(pathFile)).get(0);
-            URI rootURI = new File("").toURI();
-            URI resourceURI = new File(resourcePath).toURI();
-            URI relativeResourceURI = rootURI.relativize(resourceURI);
-            return relativeResourceURI.getPath();
-        } catch (Exception e) {
-            return null;
+    public void appendJSON(JSONObject jsonObject, String fileName) throws IOException {
+        String resourcePath = getResourcePath();
+        if (resourcePath == null)
+            throw new IOException("Error in fetching resource path");
+
+        File file = new File(resourcePath + "/json/" + fileName + ".json");
+        String date = new SimpleDateFormat("dd-MM-yyyy-HH:mm:ss").format(Calendar.getInstance().getTime());
+        JSONWriteEvent event = new JSONWriteEvent();
+        event.begin();
+
+        ActivityLog log = activityLog(resourcePath, fileName);
+        if (!log.exists() && file.exists())
+            log.writeAll(readInJSON(fileName), ActivityLog.DEFAULT_BLOCK_ENTRIES);
+        log.append(ActivityLog.KEY_PREFIX + date, jsonObject);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.fileName = fileName;
+            event.fileBytes = log.getFile().length();
+            event.commit();
         }
     }
 
+    /**
+     * @return the compressed activity history for the file name
+     */
+    static ActivityLog activityLog(String resourcePath, String fileName) {
+        return new ActivityLog(new File(resourcePath + "/json/" + fileName + ACTIVITY_LOG_EXTENSION));
+    }
+
+    /**
+     * @return the resource path from the shared {@link Config}
+     */
+    String getResourcePath() {
+        return Config.current().getResourcePath();
+    }
+
     /**
      * @param list
      * @param fromIndex
@@ -0,0 +1,54 @@
+package uk.ac.ncl.jcarlton.networkanalysis.graph;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GraphAnalysisTest {
+
+    /**
+     * 1 follows 2 and 5, 2 follows 3, 3 and 4 follow 5.
+     */
+    private static CsrGraph graph() {
+        return new CsrGraph.Builder()
+                .addEdge(1, 2)
+                .addEdge(2, 3)
+                .addEdge(1, 5)
+                .addEdge(3, 5)
+                .addEdge(4, 5)
+                .build();
+    }
+
+    @Test
+    public void twoHopReachesAFollowOfAFollow() {
+        CsrGraph g = graph();
+        BitSet reachable = GraphAnalysis.twoHopReachable(g, g.index(1), new int[] {g.index(3), g.index(4)});
+
+        assertTrue(reachable.get(0));
+        assertFalse(reachable.get(1));
+    }
+
+    @Test
+    public void commonNeighboursCountsEitherDirection() {
+        CsrGraph g = graph();
+        // 1 has neighbours {2, 5}, 3 has {2, 5} and 4 has {5}
+        int[] counts = GraphAnalysis.commonNeighbours(g, g.index(1), new int[] {g.index(3), g.index(4)});
+
+        assertArrayEquals(new int[] {2, 1}, counts);
+    }
+
+    @Test
+    public void commonNeighboursOfAMissingTargetIsZero() {
+        CsrGraph g = graph();
+        int missing = g.index(99);
+        int[] counts = GraphAnalysis.commonNeighbours(g, g.index(1), new int[] {missing, g.index(3)});
+
+        assertEquals(-1, missing);
+        assertArrayEquals(new int[] {0, 2}, counts);
+    }
+}